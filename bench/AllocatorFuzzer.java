@@ -0,0 +1,343 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Differential fuzzing of RAllocator. Each case is a random block from ILOCGenerator (with random
+ * settings, so some blocks need no spills and some spill on every operation) allocated to a random
+ * k from 3 up. The text goes through ILOCParser, IRRenamer and RAllocator, and the allocated block
+ * is checked:
+ *
+ *   - it outputs the same values as the block as parsed, both run on ILOCSimulator
+ *   - every PR is below k
+ *   - no PR is read before the allocated block writes it
+ *   - the reserved PR k - 1 only ever holds a spill address: it is only written by a loadI of an
+ *     address at RAllocator.SPILL_BASE or above, and only read as the address of a load or store
+ *
+ * A failing case is cut down with delta debugging: chunks of operations are removed as long as
+ * the rest is still a valid block (every register defined before it is used) that fails the same
+ * check. The smallest block is written to the failure directory with its seed and k, and the run
+ * goes on until the time is up or enough cases failed. The cases are spread over a pool of
+ * threads, each with its own parser and simulators, and the seeds are handed out in order, so a
+ * seed always gives the same case whatever the number of threads.
+ *
+ * Usage: java AllocatorFuzzer [-t seconds] [-j threads] [-n max operations] [-k max registers]
+ *                             [-s first seed] [-f max failures] [-o failure directory]
+ */
+public class AllocatorFuzzer {
+
+    private final int maxOps;
+    private final int maxK;
+    private final File failureDir;
+    private final int maxFailures;
+
+    private final AtomicLong nextSeed;
+    private final AtomicLong caseCount = new AtomicLong();
+    private final AtomicLong operationCount = new AtomicLong();
+    private final AtomicInteger failureCount = new AtomicInteger();
+
+    AllocatorFuzzer(int maxOps, int maxK, long firstSeed, int maxFailures, File failureDir) {
+        this.maxOps = maxOps;
+        this.maxK = maxK;
+        this.nextSeed = new AtomicLong(firstSeed);
+        this.maxFailures = maxFailures;
+        this.failureDir = failureDir;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long seconds = Long.parseLong(PipelineBenchmark.option("-t", args, "10"));
+        int threads = Integer.parseInt(PipelineBenchmark.option("-j", args,
+                "" + Runtime.getRuntime().availableProcessors()));
+        AllocatorFuzzer fuzzer = new AllocatorFuzzer(
+                Integer.parseInt(PipelineBenchmark.option("-n", args, "300")),
+                Integer.parseInt(PipelineBenchmark.option("-k", args, "16")),
+                Long.parseLong(PipelineBenchmark.option("-s", args, "1")),
+                Integer.parseInt(PipelineBenchmark.option("-f", args, "10")),
+                new File(PipelineBenchmark.option("-o", args, "fuzz-failures")));
+
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1000000000L;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++)
+            workers.add(pool.submit(() -> {
+                fuzzer.work(deadline);
+                return null;
+            }));
+        try {
+            for (Future<?> worker : workers)
+                worker.get();
+        } finally {
+            pool.shutdownNow(); // the workers are not daemons, a failed one would keep the JVM up
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.println("cases: " + fuzzer.caseCount.get() + " (" + fuzzer.failureCount.get() + " failed)");
+        System.out.println("operations: " + fuzzer.operationCount.get());
+        System.out.println("threads: " + threads);
+        System.out.printf("throughput: %.0f cases/s, %.0f operations/s%n",
+                fuzzer.caseCount.get() / elapsed, fuzzer.operationCount.get() / elapsed);
+        if (fuzzer.failureCount.get() > 0)
+            System.exit(1);
+    }
+
+    /**
+     * Runs cases until the deadline or until enough have failed
+     */
+    private void work(long deadline) throws IOException {
+        Checker checker = new Checker();
+        while (System.nanoTime() < deadline && this.failureCount.get() < this.maxFailures) {
+            long seed = this.nextSeed.getAndIncrement();
+            Random random = new Random(seed);
+            int k = 3 + random.nextInt(this.maxK - 2);
+            int numOps = 1 + random.nextInt(this.maxOps);
+            int maxLive = 2 + random.nextInt(3 * k);
+            ILOCGenerator generator = new ILOCGenerator(random.nextLong(), maxLive, 1 + random.nextInt(4 * maxLive),
+                    random.nextBoolean() ? ILOCGenerator.GEOMETRIC : ILOCGenerator.UNIFORM, 0.05);
+            StringWriter text = new StringWriter();
+            generator.generate(text, numOps);
+
+            IntRepList source = checker.parse(text.toString());
+            String failure = source == null ? "parse: " + checker.parseErrors() : checker.check(source, k);
+            this.caseCount.incrementAndGet();
+            this.operationCount.addAndGet(source == null ? numOps : source.size());
+            if (failure != null)
+                this.fail(checker, seed, k, source, failure);
+        }
+    }
+
+    /**
+     * Minimizes a failing case and writes it to the failure directory
+     */
+    private void fail(Checker checker, long seed, int k, IntRepList source, String failure) throws IOException {
+        if (this.failureCount.incrementAndGet() > this.maxFailures)
+            return;
+        IntRepList smallest = source == null ? null : minimize(checker, source, k, failure);
+        synchronized (this) {
+            if (!this.failureDir.isDirectory() && !this.failureDir.mkdirs())
+                throw new IOException("could not create " + this.failureDir);
+            File file = new File(this.failureDir, "seed-" + seed + ".i");
+            ILOCWriter writer = ILOCWriter.open(file.getPath());
+            try {
+                writer.writeLine("// seed " + seed + ", k " + k + ": " + failure.replace('\n', ' '));
+                for (int op = 0; smallest != null && op < smallest.size(); op++)
+                    writer.writeOperation(smallest, op, 1);
+            } finally {
+                writer.close();
+            }
+            System.out.println("seed " + seed + " k=" + k + " failed: " + failure
+                    + (smallest == null ? "" : " (" + source.size() + " operations cut to " + smallest.size() + ")")
+                    + ", written to " + file);
+        }
+    }
+
+    /**
+     * Delta debugging over the operations of a failing block: removes chunks, halving them when
+     * none can go, while the rest still fails the same check
+     * @return the smallest failing block found
+     */
+    static IntRepList minimize(Checker checker, IntRepList source, int k, String failure) {
+        String kind = kind(failure);
+        int[] ops = new int[source.size()];
+        for (int op = 0; op < ops.length; op++)
+            ops[op] = op;
+
+        int granularity = 2;
+        while (ops.length >= 2) {
+            int chunk = (ops.length + granularity - 1) / granularity;
+            boolean reduced = false;
+            for (int start = 0; start < ops.length && !reduced; start += chunk) {
+                int end = Math.min(ops.length, start + chunk);
+                int[] rest = new int[ops.length - (end - start)];
+                System.arraycopy(ops, 0, rest, 0, start);
+                System.arraycopy(ops, end, rest, start, ops.length - end);
+                IntRepList candidate = select(source, rest);
+                if (!usesBeforeDefinition(candidate)) {
+                    String candidateFailure = checker.check(candidate, k);
+                    if (candidateFailure != null && kind(candidateFailure).equals(kind)) {
+                        ops = rest;
+                        granularity = Math.max(granularity - 1, 2);
+                        reduced = true;
+                    }
+                }
+            }
+            if (!reduced) {
+                if (granularity >= ops.length)
+                    break;
+                granularity = Math.min(granularity * 2, ops.length);
+            }
+        }
+        return select(source, ops);
+    }
+
+    /**
+     * @return the check a failure message is from, the part before the colon
+     */
+    private static String kind(String failure) {
+        int colon = failure.indexOf(':');
+        return colon == -1 ? failure : failure.substring(0, colon);
+    }
+
+    /**
+     * @return a new block of the given operations of source, with only the opcode and SR fields
+     */
+    private static IntRepList select(IntRepList source, int[] ops) {
+        IntRepList block = new IntRepList(ops.length);
+        for (int op : ops) {
+            int copy = block.add(source.getOpCode(op));
+            for (int opBaseInd = 1; opBaseInd < IntRepList.FIELDS; opBaseInd += 4)
+                block.set(copy, opBaseInd, source.get(op, opBaseInd));
+        }
+        return block;
+    }
+
+    /**
+     * @return whether some register is used in the block before any operation defines it
+     */
+    private static boolean usesBeforeDefinition(IntRepList block) {
+        boolean[] defined = new boolean[maxSRNum(block) + 1];
+        for (int op = 0; op < block.size(); op++) {
+            int opCode = block.getOpCode(op);
+            if (opCode != 1 && opCode < 8) { // only these use registers
+                int lastOPUseInd = opCode == 2 ? 10 : 6; // the store also uses its third register
+                for (int opBaseInd = 1; opBaseInd < lastOPUseInd; opBaseInd += 4) {
+                    int SR = block.get(op, opBaseInd);
+                    if (SR != IntRepList.ABSENT && !defined[SR])
+                        return true;
+                }
+            }
+            if (opCode != 2 && opCode < 8) // defines the register at index 9
+                defined[block.get(op, 9)] = true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the largest source register number in the block
+     */
+    private static int maxSRNum(IntRepList block) {
+        int max = 0;
+        for (int op = 0; op < block.size(); op++) {
+            int opCode = block.getOpCode(op);
+            // the first field of a loadI or output is a constant, unused fields are ABSENT
+            for (int opBaseInd = opCode == 1 || opCode == 8 ? 5 : 1; opBaseInd < IntRepList.FIELDS; opBaseInd += 4)
+                max = Math.max(max, block.get(op, opBaseInd));
+        }
+        return max;
+    }
+
+    /**
+     * Parses, allocates and checks cases. One per thread: it reuses its parser and simulators.
+     */
+    static class Checker {
+        private final ILOCParser parser = new ILOCParser(ByteBuffer.allocate(0));
+        private final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        private final ILOCSimulator expected = new ILOCSimulator();
+        private final ILOCSimulator actual = new ILOCSimulator();
+
+        Checker() {
+            this.parser.setErrorStream(new PrintStream(this.errors, true));
+        }
+
+        /**
+         * @return the parsed block, null if the text has syntax errors
+         */
+        IntRepList parse(String text) {
+            ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+            IntRepList block = new IntRepList(text.length() / 16);
+            this.errors.reset();
+            this.parser.reset(bytes, block);
+            this.parser.ParseGetIRep();
+            return this.parser.isSuccess() ? block : null;
+        }
+
+        String parseErrors() {
+            return this.errors.toString().trim();
+        }
+
+        /**
+         * Allocates a block and checks the result
+         * @param source the block as parsed. Its VR, PR and NU fields are overwritten.
+         * @return what is wrong, starting with the name of the check and a colon, null if nothing
+         */
+        String check(IntRepList source, int k) {
+            IntRepList allocated;
+            try {
+                IRRenamer renamer = new IRRenamer(source, maxSRNum(source));
+                renamer.Rename();
+                RAllocator allocator = new RAllocator(source, k, renamer.getMaxVRegNum());
+                allocator.Allocate();
+                allocated = allocator.getAllocatedBlock();
+            } catch (RuntimeException e) {
+                return "crash: " + e;
+            }
+
+            String broken = checkRegisters(allocated, k);
+            if (broken != null)
+                return broken;
+
+            try {
+                this.expected.Run(source, 1);
+            } catch (IllegalStateException e) {
+                return null; // a minimized block can compute an address outside memory, it has no outputs
+            }
+            try {
+                this.actual.Run(allocated, 3);
+            } catch (IllegalStateException e) {
+                return "memory: " + e.getMessage();
+            }
+            int difference = this.expected.firstDifference(this.actual);
+            if (difference != -1)
+                return "outputs: output " + (difference + 1) + " differs";
+            return null;
+        }
+    }
+
+    /**
+     * Checks the PRs of an allocated block against k and the reserved PR
+     * @return what is wrong, null if nothing
+     */
+    static String checkRegisters(IntRepList allocated, int k) {
+        int reserved = k - 1;
+        boolean[] written = new boolean[k];
+        for (int op = 0; op < allocated.size(); op++) {
+            int opCode = allocated.getOpCode(op);
+            if (opCode != 1 && opCode < 8) { // only these read registers
+                int lastOPUseInd = opCode == 2 ? 10 : 6; // the store also reads its third register
+                for (int opBaseInd = 1; opBaseInd < lastOPUseInd; opBaseInd += 4) {
+                    int PR = allocated.get(op, opBaseInd + 2);
+                    if (PR == IntRepList.ABSENT)
+                        continue;
+                    if (PR < 0 || PR >= k)
+                        return "range: operation " + (op + 1) + " reads r" + PR;
+                    if (!written[PR])
+                        return "unassigned: operation " + (op + 1) + " reads r" + PR + " before it is written";
+                    boolean address = (opCode == 0 && opBaseInd == 1) || (opCode == 2 && opBaseInd == 9);
+                    if (PR == reserved && !address)
+                        return "reserved: operation " + (op + 1) + " reads the reserved r" + PR + " as a value";
+                }
+            }
+            if (opCode != 2 && opCode < 8) { // writes the register of the third argument
+                int PR = allocated.get(op, 11);
+                if (PR < 0 || PR >= k)
+                    return "range: operation " + (op + 1) + " writes r" + PR;
+                if (PR == reserved && (opCode != 1 || allocated.get(op, 1) < RAllocator.SPILL_BASE))
+                    return "reserved: operation " + (op + 1) + " writes a value to the reserved r" + PR;
+                written[PR] = true;
+            }
+        }
+        return null;
+    }
+}
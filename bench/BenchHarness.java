@@ -0,0 +1,118 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * A small timing harness for the benchmarks. It warms a workload up, then times it for a fixed
+ * amount of wall time and reports throughput together with what a GC profiler would show:
+ * bytes allocated by the benchmark thread, and the number and duration of collections.
+ */
+public class BenchHarness {
+
+    /**
+     * A piece of work to time. Each run processes the given number of items (tokens, operations)
+     */
+    public interface Workload {
+        void run() throws Exception;
+    }
+
+    /**
+     * The result of measuring one workload
+     */
+    public static class Result {
+        public final String name;
+        public final double itemsPerSecond;
+        public final double allocMBPerSecond;
+        public final double bytesPerItem;
+        public final long gcCount;
+        public final long gcMillis;
+
+        Result(String name, double itemsPerSecond, double allocMBPerSecond, double bytesPerItem,
+               long gcCount, long gcMillis) {
+            this.name = name;
+            this.itemsPerSecond = itemsPerSecond;
+            this.allocMBPerSecond = allocMBPerSecond;
+            this.bytesPerItem = bytesPerItem;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-36s %,16.0f items/s %,10.1f MB/s alloc %,10.1f B/item %5d gc %6d ms",
+                    name, itemsPerSecond, allocMBPerSecond, bytesPerItem, gcCount, gcMillis);
+        }
+    }
+
+    /**
+     * The thread bean, which on HotSpot also counts allocated bytes per thread
+     */
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * How long to warm up and how long to measure, in nanoseconds
+     */
+    private final long warmupNanos;
+    private final long measureNanos;
+
+    /**
+     * @param warmupMillis how long to run a workload before measuring it
+     * @param measureMillis how long to measure a workload for
+     */
+    public BenchHarness(long warmupMillis, long measureMillis) {
+        this.warmupNanos = warmupMillis * 1000000L;
+        this.measureNanos = measureMillis * 1000000L;
+    }
+
+    /**
+     * Warms up and measures the workload. It always runs at least twice in each phase, so large
+     * workloads may take longer than the configured times.
+     * @param name the name to report
+     * @param itemsPerRun how many items a single run processes
+     * @param workload the work to time
+     * @return the measurement
+     */
+    public Result measure(String name, long itemsPerRun, Workload workload) throws Exception {
+        long start = System.nanoTime();
+        for (int runs = 0; runs < 2 || System.nanoTime() - start < this.warmupNanos; runs++)
+            workload.run();
+
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+        long allocated = THREADS.getCurrentThreadAllocatedBytes();
+        long runs = 0;
+        start = System.nanoTime();
+        long elapsed;
+        do {
+            workload.run();
+            runs++;
+            elapsed = System.nanoTime() - start;
+        } while (runs < 2 || elapsed < this.measureNanos);
+        allocated = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+
+        double seconds = elapsed / 1e9;
+        long items = runs * itemsPerRun;
+        return new Result(name, items / seconds, allocated / seconds / (1024 * 1024),
+                (double) allocated / items, gcCount() - gcCount, gcMillis() - gcMillis);
+    }
+
+    /**
+     * @return the number of collections so far, over all collectors
+     */
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(gc.getCollectionCount(), 0);
+        return count;
+    }
+
+    /**
+     * @return the time spent collecting so far, over all collectors
+     */
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += Math.max(gc.getCollectionTime(), 0);
+        return millis;
+    }
+}
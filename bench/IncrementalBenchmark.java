@@ -0,0 +1,52 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Compares allocating a whole block with IncrementalAllocator.load against redoing it after a
+ * one operation edit with IncrementalAllocator.replace. The block is made of generated pieces one
+ * after the other, each defining its registers before using them, so there is a cut between
+ * every two pieces; an edit costs about the pieces it falls in. Each edit replaces an operation
+ * with a copy of itself, so the block stays the same from run to run.
+ *
+ * Usage: java IncrementalBenchmark [-n block sizes] [-b piece size] [-k registers] [-w window size]
+ */
+public class IncrementalBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = PipelineBenchmark.intList(PipelineBenchmark.option("-n", args, "100000,1000000"));
+        int pieceSize = Integer.parseInt(PipelineBenchmark.option("-b", args, "1000"));
+        int k = Integer.parseInt(PipelineBenchmark.option("-k", args, "8"));
+        int windowSize = Integer.parseInt(PipelineBenchmark.option("-w", args, "256"));
+        BenchHarness harness = new BenchHarness(1000, 2000);
+
+        for (int size : sizes) {
+            File file = File.createTempFile("incbench", ".i");
+            file.deleteOnExit();
+            try (Writer out = new BufferedWriter(new FileWriter(file))) {
+                for (int piece = 0; piece < size / pieceSize; piece++)
+                    new ILOCGenerator(piece, 24, 96, ILOCGenerator.GEOMETRIC, 0).generate(out, pieceSize);
+            }
+            IntRepList block = new ILOCParser(file.getPath(), false, false).ParseGetIRep();
+
+            IncrementalAllocator allocator = new IncrementalAllocator(k, windowSize);
+            System.out.println(harness.measure("load    n=" + block.size(), block.size(),
+                    () -> allocator.load(block)));
+
+            Random random = new Random(1);
+            IntRepList edit = new IntRepList(1);
+            long[] reallocated = new long[2];
+            System.out.println(harness.measure("replace n=" + block.size() + " (edits/s)", 1, () -> {
+                int op = random.nextInt(block.size());
+                edit.clear();
+                edit.append(block, op);
+                allocator.replace(op, 1, edit);
+                reallocated[0] += allocator.getReallocatedCount();
+                reallocated[1]++;
+            }));
+            System.out.println("        operations allocated again per edit: " + reallocated[0] / reallocated[1]);
+        }
+    }
+}
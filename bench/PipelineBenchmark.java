@@ -0,0 +1,111 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Benchmarks each stage of the allocator separately: scanning (ILOCScanner.advance), parsing
+ * (ILOCParser.ParseGetIRep, and ParallelParser.ParseGetIRep with -j), renaming
+ * (IRRenamer.Rename), printing (IRRenamer.PrintRenamedBlock), simulating (ILOCSimulator.Run) and
+ * allocation (RAllocator.Allocate, LinearScanAllocator.Allocate with -l and
+ * ColoringAllocator.Allocate with -g), over synthetic blocks of several sizes and, for allocation,
+ * several register counts.
+ *
+ * Usage: java PipelineBenchmark [-n sizes] [-k register counts] [-p max live values]
+ *                               [-w warmup ms] [-m measure ms] [-l] [-g] [-j parse threads]
+ *   e.g. java PipelineBenchmark -n 1000,100000,10000000 -k 3,16,64 -p 48
+ */
+public class PipelineBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = intList(option("-n", args, "1000,10000,100000,1000000"));
+        int[] ks = intList(option("-k", args, "3,4,8,16,32,64"));
+        int maxLive = Integer.parseInt(option("-p", args, "32"));
+        boolean color = Arrays.asList(args).contains("-g");
+        boolean linear = Arrays.asList(args).contains("-l");
+        String threads = option("-j", args, null);
+        ForkJoinPool pool = threads == null ? null : new ForkJoinPool(Integer.parseInt(threads));
+        BenchHarness harness = new BenchHarness(Long.parseLong(option("-w", args, "1000")),
+                Long.parseLong(option("-m", args, "2000")));
+
+        for (int size : sizes) {
+            File block = writeBlock(size, maxLive, 42);
+            String path = block.getPath();
+
+            System.out.println(harness.measure("scan     n=" + size, size, () -> {
+                ILOCScanner scanner = new ILOCScanner(path, false, true);
+                do {
+                    scanner.advance();
+                } while (scanner.getTokenType() != 9);
+            }));
+
+            System.out.println(harness.measure("parse    n=" + size, size, () ->
+                    new ILOCParser(path, false, false, true).ParseGetIRep()));
+            if (pool != null)
+                System.out.println(harness.measure("pparse   n=" + size + " j=" + pool.getParallelism(), size, () ->
+                        new ParallelParser(path, pool).ParseGetIRep()));
+
+            ILOCParser parser = new ILOCParser(path, false, false, true);
+            IntRepList iRep = parser.ParseGetIRep();
+            IRRenamer renamer = new IRRenamer(iRep, parser.getMaxSRNum());
+            // renaming rewrites the same VR and NU fields every time, so the block can be reused
+            System.out.println(harness.measure("rename   n=" + size, size, renamer::Rename));
+
+            System.out.println(harness.measure("print    n=" + size, size, () ->
+                    renamer.PrintRenamedBlock(new ILOCWriter(OutputStream.nullOutputStream()))));
+
+            ILOCSimulator simulator = new ILOCSimulator();
+            System.out.println(harness.measure("simulate n=" + size, size, () -> simulator.Run(iRep, 1)));
+
+            for (int k : ks) {
+                // the allocator only writes PR fields, so the renamed block can be reused too
+                System.out.println(harness.measure("allocate n=" + size + " k=" + k, size, () ->
+                        new RAllocator(iRep, k, renamer.getMaxVRegNum()).Allocate()));
+                if (linear && k >= SpillEverywhereRewriter.RESERVED)
+                    System.out.println(harness.measure("linear   n=" + size + " k=" + k, size, () ->
+                            new LinearScanAllocator(iRep, k, renamer.getMaxVRegNum()).Allocate()));
+                if (color && k >= SpillEverywhereRewriter.RESERVED)
+                    System.out.println(harness.measure("color    n=" + size + " k=" + k, size, () ->
+                            new ColoringAllocator(iRep, k, renamer.getMaxVRegNum()).Allocate()));
+            }
+            block.delete();
+        }
+    }
+
+    /**
+     * Writes a synthetic block to a temporary file with ILOCGenerator
+     * @param numOps the number of operations
+     * @param maxLive the maximum number of values live at once
+     * @param seed the random seed
+     * @return the file
+     */
+    static File writeBlock(int numOps, int maxLive, long seed) throws IOException {
+        File file = File.createTempFile("pipebench", ".i");
+        file.deleteOnExit();
+        new ILOCGenerator(seed, maxLive, 4 * maxLive, ILOCGenerator.GEOMETRIC, 0.02).generateFile(file.getPath(), numOps);
+        return file;
+    }
+
+    /**
+     * @return the value following flag in args, or the default
+     */
+    static String option(String flag, String[] args, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(flag))
+                return args[i + 1];
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @return the comma separated integers in list
+     */
+    static int[] intList(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            values[i] = Integer.parseInt(parts[i].trim());
+        return values;
+    }
+}
@@ -0,0 +1,67 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Measures ILOCScanner throughput in tokens per second on a large generated block.
+ *
+ * Usage: java ScannerBenchmark [number of operations]
+ */
+public class ScannerBenchmark {
+
+    /**
+     * The lines the input is built from, one of every kind of statement
+     */
+    private static final String[] LINES = new String[]{
+            "loadI 1024\t=> r100",
+            "add   r100,r100\t=> r0",
+            "load  r0\t=> r10",
+            "mult  r10, r11   => r12 // scale",
+            "lshift r12, r1 => r13",
+            "rshift r13, r1 => r14",
+            "sub   r14,r10\t=> r15",
+            "store r15\t=> r0",
+            "//",
+            "output 1024",
+            "nop"
+    };
+
+    public static void main(String[] args) throws IOException {
+        int numOps = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        File input = File.createTempFile("scanbench", ".i");
+        input.deleteOnExit();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(input))) {
+            for (int i = 0; i < numOps; i++) {
+                writer.write(LINES[i % LINES.length]);
+                writer.newLine();
+            }
+        }
+
+        for (boolean mapped : new boolean[]{false, true}) {
+            String name = mapped ? "mapped" : "stream";
+            for (int i = 0; i < 3; i++) // warm up
+                scan(input.getPath(), mapped);
+            long tokens = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < 5; i++)
+                tokens += scan(input.getPath(), mapped);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-7s %,15.0f tokens/s%n", name, tokens / seconds);
+        }
+    }
+
+    /**
+     * Scans the whole file
+     * @return the number of tokens read
+     */
+    private static long scan(String filePath, boolean mapped) throws IOException {
+        ILOCScanner scanner = new ILOCScanner(filePath, false, mapped);
+        long tokens = 0;
+        do {
+            scanner.advance();
+            tokens++;
+        } while (scanner.getTokenType() != 9);
+        return tokens;
+    }
+}
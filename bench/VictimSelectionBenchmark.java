@@ -0,0 +1,110 @@
+import java.util.Random;
+
+/**
+ * Compares spill victim selection with PRNextUseIndex against the linear scan over the next use
+ * of every PR that RAllocator used before. The update and spill pattern mimics allocation: every
+ * operation sets the next use of two operand PRs and one result PR, and a fraction of them has to
+ * spill first, with the first operand's PR excluded from the choice.
+ *
+ * Usage: java VictimSelectionBenchmark [-k register counts] [-s spills per operation]
+ * The end to end effect can be seen with: java PipelineBenchmark -k 256 -p 3000
+ */
+public class VictimSelectionBenchmark {
+
+    private static final int OPS = 1 << 20;
+
+    /**
+     * Where the victims go so the JIT can't drop the work
+     */
+    static volatile int sink;
+
+    public static void main(String[] args) throws Exception {
+        int[] ks = PipelineBenchmark.intList(PipelineBenchmark.option("-k", args, "16,64,256,1024"));
+        double[] spillRates = new double[]{0.1, 0.5, 1.0};
+        String rates = PipelineBenchmark.option("-s", args, null);
+        if (rates != null) {
+            String[] parts = rates.split(",");
+            spillRates = new double[parts.length];
+            for (int i = 0; i < parts.length; i++)
+                spillRates[i] = Double.parseDouble(parts[i]);
+        }
+        BenchHarness harness = new BenchHarness(1000, 2000);
+
+        for (int k : ks) {
+            for (double spillRate : spillRates) {
+                int[] pattern = pattern(k, spillRate, 7);
+                System.out.println(harness.measure("scan k=" + k + " spills/op=" + spillRate, OPS,
+                        () -> sink += runScan(k, pattern)));
+                System.out.println(harness.measure("index k=" + k + " spills/op=" + spillRate, OPS,
+                        () -> sink += runTree(k, pattern)));
+            }
+        }
+    }
+
+    /**
+     * Builds the operation stream: per operation the two operand PRs, the result PR, the next use
+     * written for each, and whether the operation spills (1) or not (0)
+     */
+    private static int[] pattern(int k, double spillRate, long seed) {
+        Random random = new Random(seed);
+        int[] pattern = new int[OPS * 7];
+        for (int op = 0; op < OPS; op++) {
+            int base = op * 7;
+            pattern[base] = random.nextInt(k - 1);
+            pattern[base + 1] = random.nextInt(k - 1);
+            pattern[base + 2] = random.nextInt(k - 1);
+            pattern[base + 3] = op + 1 + random.nextInt(4 * k);
+            pattern[base + 4] = op + 1 + random.nextInt(4 * k);
+            pattern[base + 5] = op + 1 + random.nextInt(4 * k);
+            pattern[base + 6] = random.nextDouble() < spillRate ? 1 : 0;
+        }
+        return pattern;
+    }
+
+    private static int runScan(int k, int[] pattern) {
+        int[] nextUse = new int[k];
+        int victims = 0;
+        for (int op = 0; op < OPS; op++) {
+            int base = op * 7;
+            nextUse[pattern[base]] = pattern[base + 3];
+            int locked = pattern[base];
+            if (pattern[base + 6] == 1) {
+                int max = -1;
+                int maxPR = -1;
+                for (int i = 0; i < k - 1; i++) {
+                    if (nextUse[i] > max && i != locked) {
+                        max = nextUse[i];
+                        maxPR = i;
+                    }
+                }
+                if (maxPR != -1) {
+                    victims += maxPR;
+                    nextUse[maxPR] = -1;
+                }
+            }
+            nextUse[pattern[base + 1]] = pattern[base + 4];
+            nextUse[pattern[base + 2]] = pattern[base + 5];
+        }
+        return victims;
+    }
+
+    private static int runTree(int k, int[] pattern) {
+        PRNextUseIndex nextUse = new PRNextUseIndex(k);
+        int victims = 0;
+        for (int op = 0; op < OPS; op++) {
+            int base = op * 7;
+            nextUse.set(pattern[base], pattern[base + 3]);
+            int locked = pattern[base];
+            if (pattern[base + 6] == 1) {
+                int maxPR = nextUse.max(locked);
+                if (maxPR != -1) {
+                    victims += maxPR;
+                    nextUse.remove(maxPR);
+                }
+            }
+            nextUse.set(pattern[base + 1], pattern[base + 4]);
+            nextUse.set(pattern[base + 2], pattern[base + 5]);
+        }
+        return victims;
+    }
+}
@@ -0,0 +1,16 @@
+#!/bin/sh
+# Builds the allocator and the benchmarks into build/bench and runs one benchmark.
+#
+#   bench/run.sh PipelineBenchmark -n 1000,1000000 -k 3,64
+#   bench/run.sh ScannerBenchmark 5000000
+#   bench/run.sh AllocatorFuzzer -t 60 -j 8
+#
+# Extra JVM options can be passed through JAVA_OPTS, e.g. JAVA_OPTS=-Xmx8g for 10M operations.
+set -e
+root=$(cd "$(dirname "$0")/.." && pwd)
+out="$root/build/bench"
+mkdir -p "$out"
+javac -d "$out" "$root"/src/*.java "$root"/bench/*.java
+main=${1:-PipelineBenchmark}
+[ $# -gt 0 ] && shift
+exec java $JAVA_OPTS -cp "$out" "$main" "$@"
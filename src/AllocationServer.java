@@ -0,0 +1,348 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Allocates blocks sent over a socket, so a build allocating many of them pays for the JVM start
+ * up and JIT warm up once.
+ *
+ * A client sends any number of requests on a connection, each a header line followed by the ILOC
+ * text:
+ *
+ *   ALLOC <k> <length>\n<length bytes of ILOC>
+ *
+ * and gets back the allocated block, or the syntax errors of the text (or whatever else went
+ * wrong):
+ *
+ *   OK <length>\n<length bytes of ILOC>
+ *   ERROR <length>\n<length bytes of messages>
+ *
+ * STATS\n is answered with an OK holding the request latency percentiles. k must be from 3 to
+ * MAX_K. A request that fails is answered and the connection goes on; only a header that can't
+ * be read closes the connection, since there is no telling where the next request starts.
+ *
+ * Each connection is served on a thread of its own, so a client that keeps its connection open
+ * doesn't hold up the others, and the requests of parallel build steps are allocated in parallel.
+ * Each thread keeps a Worker with its own buffers, IR list, parser and scanner tables, which every
+ * request it serves reuses, on one connection and on the connections after it. The renamer and
+ * allocator are sized by the block and are made per request.
+ */
+public class AllocationServer {
+
+    /**
+     * The largest block text accepted
+     */
+    private static final int MAX_REQUEST_BYTES = 1 << 28;
+
+    /**
+     * The longest header line accepted
+     */
+    private static final int MAX_HEADER_BYTES = 64;
+
+    /**
+     * The largest k accepted, the allocator makes arrays of k entries
+     */
+    private static final int MAX_K = 1 << 16;
+
+    /**
+     * The number of most recent requests the latency percentiles are taken over
+     */
+    private static final int LATENCY_WINDOW = 1 << 16;
+
+    private final ServerSocketChannel server;
+
+    /**
+     * The threads connections are served on, one per open connection
+     */
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+
+    /**
+     * The Worker of each connection thread, kept when the thread goes on to another connection
+     */
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+
+    /**
+     * The latencies of the last LATENCY_WINDOW requests in nanoseconds, a ring
+     */
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private long requestCount;
+
+    /**
+     * @param server a bound server channel
+     */
+    public AllocationServer(ServerSocketChannel server) {
+        this.server = server;
+    }
+
+    /**
+     * Opens the server socket
+     * @param address a port number to listen on localhost over TCP, or the path of a Unix domain
+     *                socket to create
+     * @return the server
+     * @throws IOException if the socket can't be bound, for example because another server is
+     * listening on it
+     */
+    public static AllocationServer open(String address) throws IOException {
+        ServerSocketChannel server;
+        if (address.matches("\\d+")) {
+            server = ServerSocketChannel.open(StandardProtocolFamily.INET);
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address)));
+        } else {
+            UnixDomainSocketAddress socket = UnixDomainSocketAddress.of(address);
+            deleteStaleSocket(socket);
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(socket);
+            new File(address).deleteOnExit(); // not run when the server is killed, see deleteStaleSocket
+        }
+        return new AllocationServer(server);
+    }
+
+    /**
+     * Deletes the socket file a killed server left behind, which would make bind fail
+     * @throws IOException if a server is still listening on it
+     */
+    private static void deleteStaleSocket(UnixDomainSocketAddress socket) throws IOException {
+        Path path = socket.getPath();
+        if (!Files.exists(path))
+            return;
+        try (SocketChannel probe = SocketChannel.open(socket)) {
+            throw new IOException("a server is already listening on " + path);
+        } catch (ConnectException e) { // nothing listens, the file is stale
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Serves connections until the server socket is closed
+     * @throws IOException if accepting a connection fails
+     */
+    public void serve() throws IOException {
+        try {
+            while (true) {
+                SocketChannel client = this.server.accept();
+                this.connections.execute(() -> {
+                    try (client) {
+                        this.workers.get().serveConnection(client);
+                    } catch (IOException e) {
+                        System.err.println("connection dropped: " + e.getMessage());
+                    }
+                });
+            }
+        } finally {
+            this.connections.shutdownNow();
+        }
+    }
+
+    /**
+     * The buffers and parser a connection thread serves its requests with
+     */
+    private class Worker {
+
+        /**
+         * The bytes read from the connection, kept ready to read between requests
+         */
+        private final ByteBuffer in = ByteBuffer.allocate(1 << 16);
+
+        /**
+         * The block text of the current request, grown to the largest request so far
+         */
+        private ByteBuffer request = ByteBuffer.allocate(1 << 16);
+
+        private final IntRepList iRep = new IntRepList(1 << 12);
+        private final ILOCParser parser = new ILOCParser(ByteBuffer.allocate(0));
+        private final ResponseBuffer response = new ResponseBuffer();
+        private final ILOCWriter writer = new ILOCWriter(this.response);
+        private final ResponseBuffer errors = new ResponseBuffer();
+
+        Worker() {
+            this.parser.setErrorStream(new PrintStream(this.errors, true));
+        }
+
+        /**
+         * Answers the requests on one connection until the client closes it
+         */
+        private void serveConnection(SocketChannel client) throws IOException {
+            this.in.clear().flip();
+            String header;
+            while ((header = this.readLine(client)) != null) {
+                long start = System.nanoTime();
+                String[] words = header.split(" ");
+                if (words.length == 1 && words[0].equals("STATS")) {
+                    String summary = AllocationServer.this.latencySummary();
+                    this.reply(client, "OK", ByteBuffer.wrap(summary.getBytes(StandardCharsets.US_ASCII)));
+                    continue;
+                }
+
+                int k;
+                int length;
+                try {
+                    if (words.length != 3 || !words[0].equals("ALLOC"))
+                        throw new NumberFormatException();
+                    k = Integer.parseInt(words[1]);
+                    length = Integer.parseInt(words[2]);
+                } catch (NumberFormatException e) {
+                    length = -1;
+                    k = 0;
+                }
+                if (length < 0 || length > MAX_REQUEST_BYTES) {
+                    this.reply(client, "ERROR", ByteBuffer.wrap(("bad request header: " + header + "\n")
+                            .getBytes(StandardCharsets.US_ASCII)));
+                    return;
+                }
+
+                this.readBody(client, length);
+                if (k < 3 || k > MAX_K) { // the body is read, so the connection can go on
+                    String message = "k must be from 3 to " + MAX_K + ", not " + k + "\n";
+                    this.reply(client, "ERROR", ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII)));
+                    continue;
+                }
+                this.allocate(client, k);
+                AllocationServer.this.recordLatency(System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * Allocates the block in request and answers with it or with what went wrong
+         */
+        private void allocate(SocketChannel client, int k) throws IOException {
+            this.errors.reset();
+            this.response.reset();
+            try {
+                this.parser.reset(this.request, this.iRep);
+                this.parser.ParseGetIRep();
+                if (this.parser.isSuccess()) {
+                    IRRenamer renamer = new IRRenamer(this.iRep, this.parser.getMaxSRNum());
+                    renamer.Rename();
+                    RAllocator allocator = new RAllocator(this.iRep, k, renamer.getMaxVRegNum());
+                    allocator.Allocate();
+                    allocator.PrintRenamedBlock(this.writer);
+                    this.writer.flush();
+                }
+            } catch (IllegalArgumentException e) {
+                this.errors.reset();
+                new PrintStream(this.errors, true).println(e.getMessage());
+            } catch (RuntimeException e) { // a bug, but it should not take the server down
+                this.writer.flush(); // drop what was printed, response is reset before the next request
+                this.errors.reset();
+                new PrintStream(this.errors, true).println(e);
+            }
+
+            if (this.errors.size() > 0)
+                this.reply(client, "ERROR", this.errors.contents());
+            else
+                this.reply(client, "OK", this.response.contents());
+        }
+
+        /**
+         * Reads a header line
+         * @return the line without its newline, null if the client closed the connection
+         * @throws IOException if reading fails or the line is too long
+         */
+        private String readLine(SocketChannel client) throws IOException {
+            ByteBuffer in = this.in;
+            int scanned = in.position();
+            while (true) {
+                for (; scanned < in.limit(); scanned++) {
+                    if (in.get(scanned) == '\n') {
+                        String line = new String(in.array(), in.position(), scanned - in.position(),
+                                StandardCharsets.US_ASCII);
+                        in.position(scanned + 1);
+                        return line.trim();
+                    }
+                }
+                if (in.remaining() >= MAX_HEADER_BYTES)
+                    throw new IOException("request header too long");
+                scanned -= in.position();
+                in.compact();
+                int read = client.read(in);
+                in.flip();
+                if (read == -1) {
+                    if (in.hasRemaining())
+                        throw new IOException("connection closed in the middle of a header");
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * Reads the block text into request
+         */
+        private void readBody(SocketChannel client, int length) throws IOException {
+            if (this.request.capacity() < length)
+                this.request = ByteBuffer.allocate(Math.max(length, this.request.capacity() * 2));
+            ByteBuffer request = this.request;
+            request.clear().limit(length);
+
+            ByteBuffer in = this.in;
+            int buffered = Math.min(in.remaining(), length);
+            request.put(in.array(), in.position(), buffered);
+            in.position(in.position() + buffered);
+            while (request.hasRemaining()) {
+                if (client.read(request) == -1)
+                    throw new IOException("connection closed in the middle of a request");
+            }
+            request.flip();
+        }
+
+        /**
+         * Writes a status line and a body
+         */
+        private void reply(SocketChannel client, String status, ByteBuffer body) throws IOException {
+            byte[] header = (status + " " + body.remaining() + "\n").getBytes(StandardCharsets.US_ASCII);
+            ByteBuffer[] parts = new ByteBuffer[]{ByteBuffer.wrap(header), body};
+            while (parts[0].hasRemaining() || parts[1].hasRemaining())
+                client.write(parts);
+        }
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        this.latencies[(int) (this.requestCount++ % LATENCY_WINDOW)] = nanos;
+    }
+
+    /**
+     * @return the number of requests and the latency percentiles of the most recent ones
+     */
+    public synchronized String latencySummary() {
+        int count = (int) Math.min(this.requestCount, LATENCY_WINDOW);
+        StringBuilder summary = new StringBuilder("requests: ").append(this.requestCount).append('\n');
+        if (count == 0)
+            return summary.toString();
+        long[] sorted = Arrays.copyOf(this.latencies, count);
+        Arrays.sort(sorted);
+        int[] percentiles = new int[]{50, 90, 99};
+        for (int percentile : percentiles) {
+            long nanos = sorted[Math.min(count - 1, (int) ((long) count * percentile / 100))];
+            summary.append("p").append(percentile).append(": ").append(nanos / 1000).append(" us\n");
+        }
+        summary.append("max: ").append(sorted[count - 1] / 1000).append(" us\n");
+        return summary.toString();
+    }
+
+    /**
+     * A ByteArrayOutputStream whose contents can be written out without copying them
+     */
+    private static class ResponseBuffer extends ByteArrayOutputStream {
+        ResponseBuffer() {
+            super(1 << 16);
+        }
+
+        ByteBuffer contents() {
+            return ByteBuffer.wrap(this.buf, 0, this.count);
+        }
+    }
+}
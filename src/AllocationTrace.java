@@ -0,0 +1,112 @@
+import java.io.IOException;
+
+/**
+ * Records the decisions of RAllocator as CSV lines in a file, one line per event:
+ *
+ *   op,event,vr,pr,free
+ *
+ * op is the index of the operation being allocated in the input block (spill code does not count),
+ * event is one of the names below, vr and pr are the registers involved and free is the number of
+ * free PRs after the event. The allocator only calls into the trace when one is set, so tracing
+ * costs nothing when it is off. When it is on, each line is formatted into one reusable byte array
+ * and written through an ILOCWriter, so recording an event makes no strings.
+ */
+public class AllocationTrace {
+
+    /**
+     * The events
+     */
+    public static final int USE = 0;
+    public static final int DEF = 1;
+    public static final int FREE = 2;
+    public static final int SPILL = 3;
+    public static final int RESTORE = 4;
+    public static final int REMATERIALIZE = 5;
+
+    //                                                         0      1      2       3        4         5
+    private static final byte[][] eventBytes = ILOCWriter.bytes("use", "def", "free", "spill", "restore", "remat");
+
+    /**
+     * More than the longest line takes: four ten digit numbers with signs, an event and separators
+     */
+    private static final int MAX_LINE_BYTES = 64;
+
+    private final ILOCWriter out;
+
+    /**
+     * The line being formatted
+     */
+    private final byte[] line = new byte[MAX_LINE_BYTES];
+
+    /**
+     * The first write that failed, reported by close since the allocator can't handle it
+     */
+    private IOException error;
+
+    /**
+     * Added to the operation numbers the allocator gives, for blocks allocated in windows
+     */
+    private int operationBase;
+
+    /**
+     * Creates the trace file and writes the header line
+     * @param filePath the file to write the trace to
+     * @throws IOException if the file can't be created
+     */
+    public AllocationTrace(String filePath) throws IOException {
+        this.out = ILOCWriter.open(filePath);
+        this.out.writeLine("op,event,vr,pr,free");
+    }
+
+    /**
+     * @param operationBase the index in the input of the first operation of the block being allocated
+     */
+    public void setOperationBase(int operationBase) {
+        this.operationBase = operationBase;
+    }
+
+    /**
+     * Writes one event
+     * @param op the index of the operation in the block being allocated
+     * @param event the event
+     * @param vr the virtual register
+     * @param pr the physical register
+     * @param free the number of free PRs
+     */
+    public void record(int op, int event, int vr, int pr, int free) {
+        byte[] line = this.line;
+        int length = ILOCWriter.putInt(line, 0, this.operationBase + op);
+        line[length++] = ',';
+        byte[] name = eventBytes[event];
+        System.arraycopy(name, 0, line, length, name.length);
+        length += name.length;
+        line[length++] = ',';
+        length = ILOCWriter.putInt(line, length, vr);
+        line[length++] = ',';
+        length = ILOCWriter.putInt(line, length, pr);
+        line[length++] = ',';
+        length = ILOCWriter.putInt(line, length, free);
+        line[length++] = '\n';
+        try {
+            this.out.write(line, 0, length);
+        } catch (IOException e) {
+            if (this.error == null)
+                this.error = e;
+        }
+    }
+
+    /**
+     * Flushes and closes the file
+     * @throws IOException if writing the trace failed at any point
+     */
+    public void close() throws IOException {
+        try {
+            this.out.close();
+        } catch (IOException e) {
+            if (this.error == null)
+                this.error = e;
+        }
+        if (this.error != null)
+            throw new IOException("could not write the allocation trace: " + this.error.getMessage());
+    }
+}
@@ -0,0 +1,244 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Allocates many blocks in one JVM so the start up and JIT warm up are paid once instead of once
+ * per file.
+ *
+ * Each file is scanned, parsed, renamed and allocated, with the passes chosen by setPasses, by a
+ * task on a fixed pool of threads, and written to a file of the same name in the output directory.
+ * A task makes its own ILOCParser, IRRenamer and allocator, none of which share state, so the tasks
+ * need no locking. The syntax errors of a file are kept apart and printed with its name when it is
+ * done, in the order the files were given, so the error output does not depend on the number of
+ * threads.
+ */
+public class BatchAllocator {
+
+    /**
+     * The allocators a batch can use
+     */
+    public static final int LOCAL = 0;
+    public static final int COLORING = 1;
+    public static final int LINEAR = 2;
+
+    private final int numPhysRegs;
+    private final int engine;
+    private final int threads;
+    private final File outDir;
+
+    /**
+     * The cache of allocated blocks shared by the tasks, null if there is none
+     */
+    private ResultCache cache;
+
+    /**
+     * The passes run around allocation, see setPasses
+     */
+    private boolean numberValues;
+    private boolean eliminateDeadCode;
+    private String schedule = "none";
+
+    private int fileCount;
+    private int failedCount;
+    private long operationCount;
+    private long elapsedNanos;
+
+    /**
+     * @param numPhysRegs the number of physical registers available
+     * @param engine LOCAL, COLORING or LINEAR
+     * @param threads the number of files allocated at the same time
+     * @param outDir the directory the allocated files are written to
+     */
+    public BatchAllocator(int numPhysRegs, int engine, int threads, File outDir) {
+        if (threads < 1)
+            throw new IllegalArgumentException("the number of threads must be at least 1");
+        this.numPhysRegs = numPhysRegs;
+        this.engine = engine;
+        this.threads = threads;
+        this.outDir = outDir;
+    }
+
+    /**
+     * @param cache a cache of allocated blocks to look files up in and add them to, or null
+     */
+    public void setCache(ResultCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Chooses the passes run on every file, as -v, -e and -r do for a single file
+     * @param numberValues whether to run ValueNumberer before renaming
+     * @param eliminateDeadCode whether to run DeadCodeEliminator after renaming
+     * @param schedule "before" or "after" to run ListScheduler before or after allocating, "none"
+     */
+    public void setPasses(boolean numberValues, boolean eliminateDeadCode, String schedule) {
+        this.numberValues = numberValues;
+        this.eliminateDeadCode = eliminateDeadCode;
+        this.schedule = schedule;
+    }
+
+    /**
+     * Lists the files to allocate: the files given, and the files directly inside the directories
+     * given, in name order
+     * @param paths files and directories
+     * @return the files
+     * @throws IllegalArgumentException if a path doesn't exist, two files have the same name or a
+     * file is in the output directory
+     * @throws IOException if a path can't be resolved
+     */
+    public List<File> listInputs(String[] paths) throws IOException {
+        List<File> inputs = new ArrayList<>();
+        for (String path : paths) {
+            File file = new File(path);
+            if (file.isDirectory()) {
+                File[] children = file.listFiles(File::isFile);
+                Arrays.sort(children);
+                inputs.addAll(Arrays.asList(children));
+            } else if (file.isFile()) {
+                inputs.add(file);
+            } else {
+                throw new IllegalArgumentException(path + " is not a file or directory");
+            }
+        }
+
+        String outDir = this.outDir.getCanonicalPath();
+        HashSet<String> names = new HashSet<>();
+        for (File input : inputs) {
+            if (input.getCanonicalFile().getParent().equals(outDir))
+                throw new IllegalArgumentException(input
+                        + " is in the output directory and would be overwritten");
+            if (!names.add(input.getName()))
+                throw new IllegalArgumentException("more than one input file is named "
+                        + input.getName());
+        }
+        return inputs;
+    }
+
+    /**
+     * Allocates the files and waits for all of them
+     * @param inputs the files to allocate
+     * @throws IOException if the output directory can't be created
+     */
+    public void run(List<File> inputs) throws IOException {
+        if (!this.outDir.isDirectory() && !this.outDir.mkdirs())
+            throw new IOException("could not create " + this.outDir);
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<>(inputs.size());
+            List<ByteArrayOutputStream> errors = new ArrayList<>(inputs.size());
+            for (File input : inputs) {
+                ByteArrayOutputStream fileErrors = new ByteArrayOutputStream();
+                errors.add(fileErrors);
+                results.add(pool.submit(() -> this.allocateFile(input, fileErrors)));
+            }
+
+            for (int i = 0; i < inputs.size(); i++) {
+                String name = inputs.get(i).getPath();
+                try {
+                    this.operationCount += results.get(i).get();
+                } catch (ExecutionException e) {
+                    System.err.println(name + ": " + e.getCause().getMessage());
+                    this.failedCount++;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while allocating " + name);
+                }
+                if (errors.get(i).size() > 0) {
+                    for (String line : errors.get(i).toString().split("\n"))
+                        System.err.println(name + ":" + line);
+                }
+                this.fileCount++;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        this.elapsedNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Allocates one file
+     * @param input the file
+     * @param errors where the syntax errors of the file go
+     * @return the number of operations in the file
+     * @throws IOException if the output can't be written
+     */
+    private int allocateFile(File input, ByteArrayOutputStream errors) throws IOException {
+        if (!input.canRead())
+            throw new IOException("could not read the file");
+        ILOCParser parser = new ILOCParser(input.getPath(), false, false);
+        parser.setErrorStream(new PrintStream(errors, true));
+        IntRepList iRep = parser.ParseGetIRep();
+        int size = iRep.size(); // before the passes remove any operations
+        String key = null;
+        if (this.cache != null)
+            key = this.cache.key(iRep, ResultCache.settings(this.numPhysRegs, this.engine,
+                    this.numberValues, this.eliminateDeadCode, this.schedule));
+
+        ILOCWriter writer = ILOCWriter.open(new File(this.outDir, input.getName()).getPath());
+        try {
+            if (this.cache != null && this.cache.lookup(key, writer))
+                return size;
+
+            IRRenamer renamer = new IRRenamer(iRep, parser.getMaxSRNum());
+            if (this.numberValues)
+                new ValueNumberer(iRep, renamer.getMaxRegNumber()).NumberValues();
+            renamer.Rename();
+            if (this.eliminateDeadCode)
+                new DeadCodeEliminator(iRep, renamer.getMaxVRegNum()).Eliminate();
+            if (this.schedule.equals("before"))
+                new ListScheduler(iRep, 2).Schedule();
+            RegisterAllocator allocator;
+            if (this.engine == COLORING)
+                allocator = new ColoringAllocator(iRep, this.numPhysRegs, renamer.getMaxVRegNum());
+            else if (this.engine == LINEAR)
+                allocator = new LinearScanAllocator(iRep, this.numPhysRegs,
+                        renamer.getMaxVRegNum());
+            else
+                allocator = new RAllocator(iRep, this.numPhysRegs, renamer.getMaxVRegNum());
+            allocator.Allocate();
+            IntRepList allocated = null;
+            if (this.schedule.equals("after")) {
+                allocated = allocator.getAllocatedBlock();
+                new ListScheduler(allocated, 3).Schedule();
+                for (int op = 0; op < allocated.size(); op++)
+                    writer.writeOperation(allocated, op, 3);
+            } else {
+                allocator.PrintRenamedBlock(writer);
+            }
+            if (this.cache != null)
+                this.cache.store(key,
+                        allocated != null ? allocated : allocator.getAllocatedBlock());
+        } finally {
+            writer.close();
+        }
+        return size;
+    }
+
+    /**
+     * Prints the number of files and operations and the throughput to stderr
+     */
+    public void report() {
+        double seconds = this.elapsedNanos / 1e9;
+        System.err.println("files: " + this.fileCount + " (" + this.failedCount + " failed)");
+        System.err.println("operations: " + this.operationCount);
+        System.err.println("threads: " + this.threads);
+        if (this.cache != null)
+            System.err.println("result cache: " + this.cache.getHitCount() + " hits, "
+                    + this.cache.getMissCount() + " misses");
+        System.err.println("time: " + this.elapsedNanos / 1000000 + " ms");
+        System.err.printf("throughput: %.0f files/s, %.0f operations/s%n",
+                this.fileCount / seconds, this.operationCount / seconds);
+    }
+}
@@ -0,0 +1,302 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A Chaitin-Briggs graph coloring allocator, the alternative to RAllocator's bottom-up local
+ * allocation.
+ *
+ * Every VR from IRRenamer is one live range, from its definition to its last use. Two VRs
+ * interfere if one is live where the other is defined. The interference graph is built by a
+ * backward pass over the block, run once to count the neighbours of each VR and once to fill them
+ * in, and kept in compressed sparse rows (one int array of neighbours and one of offsets), so it
+ * takes two ints per edge and no objects.
+ *
+ * Simplify removes nodes with fewer neighbours than colors. When none is left the node with the
+ * lowest spill cost per neighbour is removed anyway and colored optimistically (Briggs). Select
+ * then gives every node the lowest color its neighbours don't have, and a node without one is
+ * spilled everywhere by SpillEverywhereRewriter. The rewriter keeps three PRs for its spill code,
+ * so there are numPhysRegs - 3 colors and no second round of coloring is needed after spilling.
+ */
+public class ColoringAllocator implements RegisterAllocator {
+
+    private final IntRepList iRep;
+    private final int numPhysRegs;
+    private final int maxVRNum;
+
+    /**
+     * The number of colors, the PRs the rewriter doesn't keep for itself
+     */
+    private final int colors;
+
+    /**
+     * The neighbours of vr are adjacency[adjacencyStart[vr] .. adjacencyStart[vr + 1] - 1]
+     */
+    private int[] adjacency;
+    private int[] adjacencyStart;
+
+    /**
+     * The number of neighbours of each VR that are still in the graph during simplify
+     */
+    private int[] degree;
+
+    /**
+     * The estimated number of operations spilling each VR everywhere would add
+     */
+    private double[] spillCost;
+
+    private SpillEverywhereRewriter rewriter;
+
+    /**
+     * @param iRep the renamed block
+     * @param numPhysRegs the number of physical registers available, at least 3
+     * @param maxVRNum the number of VRs in the block
+     */
+    public ColoringAllocator(IntRepList iRep, int numPhysRegs, int maxVRNum) {
+        if (numPhysRegs < SpillEverywhereRewriter.RESERVED)
+            throw new IllegalArgumentException("graph coloring needs at least " + SpillEverywhereRewriter.RESERVED + " registers");
+        this.iRep = iRep;
+        this.numPhysRegs = numPhysRegs;
+        this.maxVRNum = maxVRNum;
+        this.colors = numPhysRegs - SpillEverywhereRewriter.RESERVED;
+    }
+
+    public void Allocate() {
+        this.buildGraph();
+        int[] VRToPR = this.color();
+        this.rewriter = new SpillEverywhereRewriter(this.iRep, this.numPhysRegs, this.maxVRNum);
+        this.rewriter.rewrite(VRToPR);
+    }
+
+    /**
+     * Builds the interference graph and the spill costs
+     */
+    private void buildGraph() {
+        int n = this.maxVRNum;
+        this.degree = new int[n];
+        this.spillCost = new double[n];
+        int[] live = new int[n]; // the live VRs, live[0 .. liveCount - 1]
+        int[] livePosition = new int[n]; // where each live VR is in live, -1 if it isn't live
+        IntRepList ir = this.iRep;
+
+        for (int pass = 0; pass < 2; pass++) {
+            Arrays.fill(livePosition, -1);
+            int liveCount = 0;
+            int[] fill = pass == 1 ? Arrays.copyOf(this.adjacencyStart, n) : null;
+            for (int op = ir.size() - 1; op >= 0; op--) {
+                int opCode = ir.getOpCode(op);
+                if (opCode != 2 && opCode < 8) { // defines the register at index 9
+                    int VR = ir.get(op, 10);
+                    if (livePosition[VR] != -1) { // take it out of the live set
+                        int last = live[--liveCount];
+                        live[livePosition[VR]] = last;
+                        livePosition[last] = livePosition[VR];
+                        livePosition[VR] = -1;
+                    }
+                    if (pass == 0) {
+                        this.degree[VR] += liveCount;
+                        for (int i = 0; i < liveCount; i++)
+                            this.degree[live[i]]++;
+                    } else {
+                        for (int i = 0; i < liveCount; i++) {
+                            int other = live[i];
+                            this.adjacency[fill[VR]++] = other;
+                            this.adjacency[fill[other]++] = VR;
+                        }
+                    }
+                }
+                if (opCode != 1 && opCode < 8) { // only these use registers
+                    int lastOPUseInd = opCode == 2 ? 10 : 6; // the store also uses its third register
+                    for (int opBaseInd = 1; opBaseInd < lastOPUseInd; opBaseInd += 4) {
+                        if (ir.get(op, opBaseInd) == IntRepList.ABSENT)
+                            continue;
+                        int VR = ir.get(op, opBaseInd + 1);
+                        if (pass == 0)
+                            this.spillCost[VR]++; // counts the uses for now
+                        if (livePosition[VR] == -1) {
+                            livePosition[VR] = liveCount;
+                            live[liveCount++] = VR;
+                        }
+                    }
+                }
+            }
+            if (pass == 0) {
+                long entries = 0;
+                for (int vr = 0; vr < n; vr++)
+                    entries += this.degree[vr];
+                if (entries > Integer.MAX_VALUE - 8)
+                    throw new IllegalStateException("the interference graph has " + entries / 2
+                            + " edges, too many to color; use the local allocator for this block");
+                this.adjacencyStart = new int[n + 1];
+                for (int vr = 0; vr < n; vr++)
+                    this.adjacencyStart[vr + 1] = this.adjacencyStart[vr] + this.degree[vr];
+                this.adjacency = new int[this.adjacencyStart[n]];
+            }
+        }
+
+        // each use of a spilled value costs a loadI and a load and its definition a loadI and a
+        // store if it is used at all, while a spilled constant loses its loadI and costs one per use
+        for (int vr = 0; vr < n; vr++)
+            this.spillCost[vr] *= 2;
+        for (int op = 0; op < ir.size(); op++) {
+            int opCode = ir.getOpCode(op);
+            if (opCode != 2 && opCode < 8) {
+                int VR = ir.get(op, 10);
+                if (opCode == 1)
+                    this.spillCost[VR] = this.spillCost[VR] / 2 - 1;
+                else if (this.spillCost[VR] > 0)
+                    this.spillCost[VR] += 2;
+            }
+        }
+    }
+
+    /**
+     * Simplifies and selects
+     * @return the PR of each VR, -1 for the VRs that are spilled
+     */
+    private int[] color() {
+        int n = this.maxVRNum;
+        int k = this.colors;
+        int[] degree = this.degree;
+        boolean[] removed = new boolean[n];
+        int[] stack = new int[n];
+        int stackSize = 0;
+        int[] VRToPR = new int[n];
+        Arrays.fill(VRToPR, -1);
+        if (k == 0) // every VR is spilled
+            return VRToPR;
+
+        // the nodes with fewer neighbours than colors, each is added once when its degree drops below k
+        int[] lowDegree = new int[n];
+        int lowDegreeCount = 0;
+        SpillHeap spillCandidates = new SpillHeap(n);
+        for (int vr = 0; vr < n; vr++) {
+            if (degree[vr] < k)
+                lowDegree[lowDegreeCount++] = vr;
+            else
+                spillCandidates.push(vr, this.spillCost[vr] / degree[vr]);
+        }
+
+        while (stackSize < n) {
+            int node;
+            if (lowDegreeCount > 0) {
+                node = lowDegree[--lowDegreeCount];
+            } else { // blocked: remove the cheapest node per neighbour and hope it gets a color
+                node = spillCandidates.pop();
+                if (removed[node] || degree[node] < k)
+                    continue; // removed already, or queued as low degree since
+                double priority = this.spillCost[node] / degree[node];
+                if (priority > spillCandidates.lastPriority) { // its degree dropped since it was pushed
+                    spillCandidates.push(node, priority);
+                    continue;
+                }
+            }
+            removed[node] = true;
+            stack[stackSize++] = node;
+            for (int i = this.adjacencyStart[node]; i < this.adjacencyStart[node + 1]; i++) {
+                int neighbour = this.adjacency[i];
+                if (!removed[neighbour] && --degree[neighbour] == k - 1)
+                    lowDegree[lowDegreeCount++] = neighbour;
+            }
+        }
+
+        int[] colorUsedBy = new int[k]; // colorUsedBy[c] == node + 1 if a neighbour of node has c
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            for (int i = this.adjacencyStart[node]; i < this.adjacencyStart[node + 1]; i++) {
+                int color = VRToPR[this.adjacency[i]];
+                if (color != -1)
+                    colorUsedBy[color] = node + 1;
+            }
+            for (int color = 0; color < k; color++) {
+                if (colorUsedBy[color] != node + 1) {
+                    VRToPR[node] = color;
+                    break;
+                }
+            }
+        }
+        return VRToPR;
+    }
+
+    public IntRepList getAllocatedBlock() {
+        return this.rewriter.getAllocatedBlock();
+    }
+
+    public void PrintRenamedBlock(ILOCWriter writer) throws IOException {
+        this.rewriter.PrintRenamedBlock(writer);
+    }
+
+    public int getStoreCount() {
+        return this.rewriter.getStoreCount();
+    }
+
+    public int getRestoreCount() {
+        return this.rewriter.getRestoreCount();
+    }
+
+    public int getRematCount() {
+        return this.rewriter.getRematCount();
+    }
+
+    public int getPeakSpillBytes() {
+        return this.rewriter.getPeakSpillBytes();
+    }
+
+    /**
+     * A min heap of spill candidates on their spill cost per neighbour. Priorities are not updated
+     * in place, a popped node whose priority went up is pushed again instead.
+     */
+    private static class SpillHeap {
+        private int[] nodes;
+        private double[] priorities;
+        private int size;
+
+        /**
+         * The priority of the node pop returned last
+         */
+        double lastPriority;
+
+        SpillHeap(int capacity) {
+            this.nodes = new int[Math.max(capacity, 16)];
+            this.priorities = new double[this.nodes.length];
+        }
+
+        void push(int node, double priority) {
+            if (this.size == this.nodes.length) {
+                this.nodes = Arrays.copyOf(this.nodes, this.size * 2);
+                this.priorities = Arrays.copyOf(this.priorities, this.size * 2);
+            }
+            int i = this.size++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (this.priorities[parent] <= priority)
+                    break;
+                this.nodes[i] = this.nodes[parent];
+                this.priorities[i] = this.priorities[parent];
+                i = parent;
+            }
+            this.nodes[i] = node;
+            this.priorities[i] = priority;
+        }
+
+        int pop() {
+            int top = this.nodes[0];
+            this.lastPriority = this.priorities[0];
+            int lastNode = this.nodes[--this.size];
+            double last = this.priorities[this.size];
+            int i = 0;
+            while (2 * i + 1 < this.size) {
+                int child = 2 * i + 1;
+                if (child + 1 < this.size && this.priorities[child + 1] < this.priorities[child])
+                    child++;
+                if (last <= this.priorities[child])
+                    break;
+                this.nodes[i] = this.nodes[child];
+                this.priorities[i] = this.priorities[child];
+                i = child;
+            }
+            this.nodes[i] = lastNode;
+            this.priorities[i] = last;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Removes the operations of a renamed block whose results are never used.
+ *
+ * A definition is dead when nothing after it uses its VR, or when it is only used by operations
+ * that are dead themselves. Walking the block bottom up with the set of VRs still needed finds
+ * both in one pass: stores and outputs are always kept and need their operands, and any other
+ * operation is kept only if its VR is needed by something kept below it, in which case its
+ * operands are needed too. A load has no effect but its result, so a dead load goes as well.
+ *
+ * The kept operations are moved up in place and their next use fields are worked out again (see
+ * IRRenamer.SetNextUses), since a next use may have pointed at an operation that is gone.
+ * VR numbers are left as they are, so getMaxVRegNum of the renamer still bounds them.
+ */
+public class DeadCodeEliminator {
+
+    /**
+     * The renamed intermediate representation
+     */
+    private final IntRepList iRep;
+
+    /**
+     * The number of VRs the renamer gave out
+     */
+    private final int maxVRegNum;
+
+    private int removedCount;
+
+    /**
+     * @param iRep the block, renamed by IRRenamer
+     * @param maxVRegNum IRRenamer.getMaxVRegNum
+     */
+    public DeadCodeEliminator(IntRepList iRep, int maxVRegNum) {
+        this.iRep = iRep;
+        this.maxVRegNum = maxVRegNum;
+    }
+
+    /**
+     * Removes the dead operations and updates the next use fields of the rest
+     * @return the number of operations removed
+     */
+    public int Eliminate() {
+        IntRepList ir = this.iRep;
+        boolean[] needed = new boolean[this.maxVRegNum];
+        boolean[] keep = new boolean[ir.size()];
+        int kept = 0;
+        for (int op = ir.size() - 1; op >= 0; op--) {
+            int opCode = ir.getOpCode(op);
+            if (opCode != 2 && opCode < 8) { // defines the VR at index 10
+                int VR = ir.get(op, 10);
+                if (!needed[VR])
+                    continue;
+                needed[VR] = false; // defined once, so nothing above needs this one
+            }
+            keep[op] = true;
+            kept++;
+            if (opCode != 1 && opCode < 8) { // only these use registers
+                int lastOPUseInd = opCode == 2 ? 10 : 6; // the store also uses its third register
+                for (int opBaseInd = 1; opBaseInd < lastOPUseInd; opBaseInd += 4) {
+                    if (ir.get(op, opBaseInd) != IntRepList.ABSENT)
+                        needed[ir.get(op, opBaseInd + 1)] = true;
+                }
+            }
+        }
+        this.removedCount = ir.size() - kept;
+        if (this.removedCount == 0)
+            return 0;
+
+        int to = 0;
+        for (int op = 0; op < ir.size(); op++) {
+            if (keep[op])
+                ir.move(op, to++);
+        }
+        ir.truncate(to);
+        IRRenamer.SetNextUses(ir, this.maxVRegNum);
+        return this.removedCount;
+    }
+
+    /**
+     * @return the number of operations the last Eliminate removed
+     */
+    public int getRemovedCount() {
+        return this.removedCount;
+    }
+}
@@ -1,7 +1,14 @@
-import java.util.LinkedList;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
 
 public class ILOCAllocMain {
 
+    /**
+     * The flags that are followed by a value
+     */
+    private static final String[] valueFlags = new String[]{"-w", "-o", "-t", "-j", "-d", "-c", "-C", "-r"};
+
     /**
      * The main method of the program
      * @param args the arguments in the command line
@@ -14,36 +21,318 @@ public class ILOCAllocMain {
         String filePath;
         ILOCParser parser;
         IRRenamer renamer;
-        RAllocator allocator;
-        int filePathInd = 1;
+        RegisterAllocator allocator;
+        boolean memoryMapped = inArgs("-m", args);
+        String[] positional = positionalArgs(args);
         if (inArgs("-h", args)) {
             showCommandLineInfo();
             if (args.length > 1) {
                 System.err.println("Please only use one command argument at a time");
             }
         }
-        else if(inArgs("-x", args)){
-            filePath = args[1];
-            parser = new ILOCParser(filePath, false, false);
-            renamer = new IRRenamer(parser.ParseGetIRep(), parser.getMaxSRNum());
-            renamer.Rename();
-            System.out.println(renamer.getMaxVRegNum());
-            renamer.PrintRenamedBlock();
-        }
         else {
-            filePath = args[1];
-            parser = new ILOCParser(filePath, false, false);
-            LinkedList<Integer[]> iRep = parser.ParseGetIRep(); // parse and get the intermediate representation
-            renamer = new IRRenamer(iRep, parser.getMaxSRNum());
-            renamer.Rename(); // this will add VRs to iRep
-            //renamer.ShowAllRep();
-            //renamer.PrintRenamedBlock();
-            allocator = new RAllocator(iRep, Integer.parseInt(args[0]), renamer.getMaxVRegNum());
-            allocator.Allocate();
-            //allocator.ShowAllRep();
-            allocator.PrintRenamedBlock();
+            String outPath = argValue("-o", args, null);
+            String tracePath = argValue("-t", args, null);
+            if (inArgs("-g", args) && inArgs("-l", args)) {
+                System.err.println("-g and -l choose different allocators, use one of them");
+                return;
+            }
+            if (inArgs("-b", args)) {
+                batch(args, positional, outPath);
+                return;
+            }
+            if (inArgs("-d", args)) {
+                serve(argValue("-d", args, null));
+                return;
+            }
+            if (inArgs("-t", args) && (inArgs("-g", args) || inArgs("-l", args))) {
+                System.err.println("-t traces the default allocator and can't be used with "
+                        + (inArgs("-g", args) ? "-g" : "-l"));
+                return;
+            }
+            if (inArgs("-w", args)) {
+                for (String flag : new String[]{"-x", "-g", "-l", "-p", "-v", "-e", "-r", "-i", "-c"}) {
+                    if (inArgs(flag, args)) {
+                        System.err.println("-w can't be used with " + flag + ", only with -m, -o, -t and -s");
+                        return;
+                    }
+                }
+            }
+            try {
+                ILOCWriter writer = outPath == null ? new ILOCWriter(System.out) : ILOCWriter.open(outPath);
+                AllocationTrace trace = tracePath == null ? null : new AllocationTrace(tracePath);
+                if (inArgs("-w", args)) {
+                    int windowSize = Integer.parseInt(argValue("-w", args, null));
+                    StreamingAllocator streaming = new StreamingAllocator(positional[1], Integer.parseInt(positional[0]),
+                            windowSize, memoryMapped);
+                    streaming.setTrace(trace);
+                    streaming.Allocate(writer);
+                    if (inArgs("-s", args))
+                        reportStats(streaming.getStoreCount(), streaming.getRestoreCount(),
+                                streaming.getRematCount(), streaming.getPeakSpillBytes(), streaming.getAllocateNanos());
+                }
+                else {
+                    boolean renameOnly = inArgs("-x", args);
+                    filePath = positional[renameOnly ? 0 : 1];
+                    IntRepList iRep; // the intermediate representation
+                    if (inArgs("-p", args)) {
+                        ParallelParser parallel = new ParallelParser(filePath, new ForkJoinPool(threads(args)));
+                        iRep = parallel.ParseGetIRep();
+                        renamer = new IRRenamer(iRep, parallel.getMaxSRNum());
+                    } else {
+                        parser = new ILOCParser(filePath, false, false, memoryMapped);
+                        iRep = parser.ParseGetIRep();
+                        renamer = new IRRenamer(iRep, parser.getMaxSRNum());
+                    }
+                    if (renameOnly) {
+                        numberValues(iRep, renamer, args);
+                        renamer.Rename(); // this will add VRs to iRep
+                        eliminateDeadCode(iRep, renamer, args);
+                        writer.writeLine("" + renamer.getMaxVRegNum());
+                        renamer.PrintRenamedBlock(writer);
+                    }
+                    else {
+                        int k = Integer.parseInt(positional[0]);
+                        // a trace and -i need the allocation to run
+                        ResultCache cache = trace == null && !inArgs("-i", args) ? resultCache(args) : null;
+                        String key = cache == null ? null : cache.key(iRep, settings(k, args));
+                        if (cache != null && cache.lookup(key, writer)) {
+                            if (inArgs("-s", args))
+                                System.err.println("result cache: hit");
+                        }
+                        else {
+                            IntRepList source = null; // the block as parsed, for -i
+                            if (inArgs("-i", args)) {
+                                source = new IntRepList(iRep.size());
+                                source.appendAll(iRep);
+                            }
+                            numberValues(iRep, renamer, args);
+                            renamer.Rename(); // this will add VRs to iRep
+                            //renamer.ShowAllRep();
+                            eliminateDeadCode(iRep, renamer, args);
+                            if (scheduleMode(args).equals("before"))
+                                schedule(iRep, 2, args);
+                            if (inArgs("-g", args)) {
+                                allocator = new ColoringAllocator(iRep, k, renamer.getMaxVRegNum());
+                            } else if (inArgs("-l", args)) {
+                                allocator = new LinearScanAllocator(iRep, k, renamer.getMaxVRegNum());
+                            } else {
+                                RAllocator local = new RAllocator(iRep, k, renamer.getMaxVRegNum());
+                                local.setTrace(trace);
+                                allocator = local;
+                            }
+                            long start = System.nanoTime();
+                            allocator.Allocate();
+                            long allocateNanos = System.nanoTime() - start;
+                            //allocator.ShowAllRep();
+                            IntRepList allocated = null;
+                            if (scheduleMode(args).equals("after")) {
+                                allocated = allocator.getAllocatedBlock();
+                                schedule(allocated, 3, args);
+                                for (int op = 0; op < allocated.size(); op++)
+                                    writer.writeOperation(allocated, op, 3);
+                            } else {
+                                allocator.PrintRenamedBlock(writer);
+                            }
+                            if (cache != null)
+                                cache.store(key, allocated != null ? allocated : allocator.getAllocatedBlock());
+                            if (source != null)
+                                simulate(source, allocated != null ? allocated : allocator.getAllocatedBlock());
+                            if (inArgs("-s", args)) {
+                                reportStats(allocator.getStoreCount(), allocator.getRestoreCount(),
+                                        allocator.getRematCount(), allocator.getPeakSpillBytes(), allocateNanos);
+                                if (cache != null)
+                                    System.err.println("result cache: miss");
+                            }
+                        }
+                    }
+                }
+                if (trace != null)
+                    trace.close();
+                if (outPath == null)
+                    writer.flush();
+                else
+                    writer.close();
+            }
+            catch (IOException e) {
+                System.err.println("Could not read the input or write the output: " + e.getMessage());
+                System.exit(1); // the output may be cut short
+            }
+            catch (IllegalArgumentException | IllegalStateException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+
+    }
+
+    /**
+     * Allocates every file given in one run, see BatchAllocator
+     * @param args the arguments in the command line
+     * @param positional k followed by the files and directories to allocate
+     * @param outPath the directory to write the allocated files to
+     */
+    private static void batch(String[] args, String[] positional, String outPath) {
+        if (outPath == null || positional.length < 2) {
+            System.err.println("Batch mode needs -o <directory>, k and at least one file or directory");
+            return;
+        }
+        try {
+            BatchAllocator batch = new BatchAllocator(Integer.parseInt(positional[0]), engine(args), threads(args),
+                    new File(outPath));
+            batch.setCache(resultCache(args));
+            batch.setPasses(inArgs("-v", args), inArgs("-e", args), scheduleMode(args));
+            String[] paths = new String[positional.length - 1];
+            System.arraycopy(positional, 1, paths, 0, paths.length);
+            batch.run(batch.listInputs(paths));
+            batch.report();
+        }
+        catch (IOException e) {
+            System.err.println("Could not write the output: " + e.getMessage());
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the allocation server until the process is stopped, see AllocationServer
+     * @param address the port or Unix domain socket path to listen on
+     */
+    private static void serve(String address) {
+        try {
+            AllocationServer server = AllocationServer.open(address);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.print(server.latencySummary())));
+            System.err.println("listening on " + address);
+            server.serve();
+        }
+        catch (IOException e) {
+            System.err.println("Could not serve on " + address + ": " + e.getMessage());
         }
+    }
+
+    /**
+     * Runs a block and its allocated code on ILOCSimulators and prints whether their outputs are
+     * the same and the cycles each took to stderr
+     * @param source the block as parsed
+     * @param allocated the allocated block
+     */
+    private static void simulate(IntRepList source, IntRepList allocated) {
+        ILOCSimulator expected = new ILOCSimulator();
+        ILOCSimulator actual = new ILOCSimulator();
+        long start = System.nanoTime();
+        expected.Run(source, 1);
+        actual.Run(allocated, 3);
+        long nanos = System.nanoTime() - start;
+
+        int difference = expected.firstDifference(actual);
+        if (expected.getUndefinedRegister() != -1) {
+            System.err.println("source reads undefined r" + expected.getUndefinedRegister()
+                    + ", so its outputs are not compared");
+        } else if (difference == -1) {
+            System.err.println("simulated outputs match: " + expected.getOutputCount() + " outputs");
+        } else {
+            int[] want = expected.getOutputs();
+            int[] got = actual.getOutputs();
+            System.err.println("simulated outputs differ at output " + (difference + 1) + ": "
+                    + (difference < want.length ? "" + want[difference] : "none") + " from the source, "
+                    + (difference < got.length ? "" + got[difference] : "none") + " allocated");
+        }
+        System.err.println("simulated cycles: " + expected.getCycles() + " source, " + actual.getCycles() + " allocated");
+        System.err.println("simulation time: " + nanos / 1000000 + " ms for "
+                + (expected.getOperationCount() + actual.getOperationCount()) + " operations");
+    }
+
+    /**
+     * Reorders a block with a ListScheduler and prints its cycle estimates if -s is given
+     * @param registerField 2 for a renamed block, 3 for an allocated one
+     */
+    private static void schedule(IntRepList block, int registerField, String[] args) {
+        ListScheduler scheduler = new ListScheduler(block, registerField);
+        scheduler.Schedule();
+        if (inArgs("-s", args))
+            System.err.println("estimated cycles: " + scheduler.getCyclesBefore() + " in source order, "
+                    + scheduler.getCyclesAfter() + " scheduled");
+    }
+
+    /**
+     * @return the settings in args that change the allocated code, for the result cache key
+     */
+    private static String settings(int k, String[] args) {
+        return ResultCache.settings(k, engine(args), inArgs("-v", args), inArgs("-e", args), scheduleMode(args));
+    }
+
+    /**
+     * @return the value of -r, "none" if it is not given
+     * @throws IllegalArgumentException if -r is given anything but before or after
+     */
+    private static String scheduleMode(String[] args) {
+        String schedule = argValue("-r", args, "none");
+        if (!schedule.equals("none") && !schedule.equals("before") && !schedule.equals("after"))
+            throw new IllegalArgumentException("-r takes before or after, not " + schedule);
+        return schedule;
+    }
+
+    /**
+     * Numbers the values of a parsed block if -v is given, see ValueNumberer
+     */
+    private static void numberValues(IntRepList iRep, IRRenamer renamer, String[] args) {
+        if (!inArgs("-v", args))
+            return;
+        ValueNumberer numberer = new ValueNumberer(iRep, renamer.getMaxRegNumber());
+        numberer.NumberValues();
+        if (inArgs("-s", args)) {
+            System.err.println("redundant operations removed: " + numberer.getRemovedCount());
+            System.err.println("constants folded: " + numberer.getFoldedCount());
+        }
+    }
+
+    /**
+     * Removes the dead operations of a renamed block if -e is given, see DeadCodeEliminator
+     */
+    private static void eliminateDeadCode(IntRepList iRep, IRRenamer renamer, String[] args) {
+        if (!inArgs("-e", args))
+            return;
+        int removed = new DeadCodeEliminator(iRep, renamer.getMaxVRegNum()).Eliminate();
+        if (inArgs("-s", args))
+            System.err.println("dead operations removed: " + removed);
+    }
+
+    /**
+     * Prints the spill statistics of an allocation to stderr
+     */
+    private static void reportStats(int stores, int restores, int remats, int peakSpillBytes, long allocateNanos) {
+        System.err.println("spill stores: " + stores);
+        System.err.println("restores: " + restores);
+        System.err.println("rematerialized constants: " + remats);
+        System.err.println("peak spill area: " + peakSpillBytes + " bytes (" + peakSpillBytes / 4 + " slots)");
+        System.err.println("allocation time: " + allocateNanos / 1000000 + " ms");
+    }
+
+    /**
+     * @return the allocator chosen with -g or -l, as a BatchAllocator constant
+     */
+    private static int engine(String[] args) {
+        return inArgs("-g", args) ? BatchAllocator.COLORING
+                : inArgs("-l", args) ? BatchAllocator.LINEAR : BatchAllocator.LOCAL;
+    }
 
+    /**
+     * @return the result cache in the directory given with -c, limited to the megabytes given
+     * with -C, null if there is no -c
+     * @throws IOException if the directory can't be created
+     */
+    private static ResultCache resultCache(String[] args) throws IOException {
+        String dir = argValue("-c", args, null);
+        if (dir == null)
+            return null;
+        return new ResultCache(new File(dir), Long.parseLong(argValue("-C", args, "256")) << 20);
+    }
+
+    /**
+     * @return the number of threads given with -j, one per processor by default
+     */
+    private static int threads(String[] args) {
+        return Integer.parseInt(argValue("-j", args, "" + Runtime.getRuntime().availableProcessors()));
     }
 
     /**
@@ -59,6 +348,35 @@ public class ILOCAllocMain {
         return false;
     }
 
+    /**
+     * @return the argument following flag, or defaultValue if flag is not given
+     */
+    private static String argValue(String flag, String[] args, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(flag))
+                return args[i + 1];
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @param args the command line arguments
+     * @return the arguments that are not flags or flag values, in their original order
+     */
+    private static String[] positionalArgs(String[] args) {
+        String[] positional = new String[args.length];
+        int count = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (inArgs(args[i], valueFlags))
+                i++; // skip the value too
+            else if (!args[i].startsWith("-"))
+                positional[count++] = args[i];
+        }
+        String[] trimmed = new String[count];
+        System.arraycopy(positional, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
     /**
      * Shows the comman dl.,ine info
      */
@@ -74,7 +392,123 @@ public class ILOCAllocMain {
                 "412alloc -x <file name>\n" +
                 "-----------\n" +
                 "When a -x flag is detected, 412alloc reads the file specified by <file name>" +
-                "and renames the registers in the input block "
+                "and renames the registers in the input block \n" +
+                "======================================================================\n" +
+                "412alloc [-m] k <file name>\n" +
+                "-----------\n" +
+                "Allocates the block in <file name> to k physical registers. With the -m\n" +
+                "flag the input file is memory mapped instead of read through a stream,\n" +
+                "which avoids copying on very large inputs. -m can also be used with -x.\n" +
+                "======================================================================\n" +
+                "412alloc [-m] -w <ops> k <file name>\n" +
+                "-----------\n" +
+                "Allocates the block a window of at least <ops> operations at a time,\n" +
+                "cutting it only where no value is live, and prints each window as soon\n" +
+                "as it is allocated. Memory use depends on the window size rather than\n" +
+                "on the size of the block. The file is read twice. Only -m, -o, -t\n" +
+                "and -s can be used with -w.\n" +
+                "======================================================================\n" +
+                "-o <file name>\n" +
+                "-----------\n" +
+                "Writes the renamed or allocated block to <file name> instead of stdout.\n" +
+                "======================================================================\n" +
+                "-t <file name>\n" +
+                "-----------\n" +
+                "Records every allocation decision in <file name> as CSV lines of\n" +
+                "op,event,vr,pr,free where event is use, def, free, spill, restore or\n" +
+                "remat (a spilled constant loaded again) and free is the number of\n" +
+                "free PRs after it.\n" +
+                "======================================================================\n" +
+                "-s\n" +
+                "-----------\n" +
+                "Prints the number of spill stores, restores and rematerialized\n" +
+                "constants, the peak size of the spill area and the time allocation\n" +
+                "took to stderr.\n" +
+                "======================================================================\n" +
+                "-v\n" +
+                "-----------\n" +
+                "Numbers the values of the block before renaming: an operation that\n" +
+                "computes a value a register already holds is removed and its uses\n" +
+                "read that register, and arithmetic on two constants is folded into a\n" +
+                "loadI (unless the result is negative). With -s the number of\n" +
+                "operations removed and folded is printed. -v can also be used with -x.\n" +
+                "======================================================================\n" +
+                "-e\n" +
+                "-----------\n" +
+                "Removes the operations whose results are never used, or are only used\n" +
+                "by operations that are removed, before allocating. Stores and outputs\n" +
+                "are always kept. With -s the number of operations removed is printed.\n" +
+                "-e can also be used with -x.\n" +
+                "======================================================================\n" +
+                "-r before|after\n" +
+                "-----------\n" +
+                "Reorders the operations to stall less on loads, stores and mults,\n" +
+                "keeping every register and memory dependence, either on the renamed\n" +
+                "block before allocating or on the allocated block with its spill code.\n" +
+                "With -s the estimated cycles in source order and scheduled are printed.\n" +
+                "======================================================================\n" +
+                "-i\n" +
+                "-----------\n" +
+                "Runs the block as parsed and the allocated block on a built-in ILOC\n" +
+                "simulator, then prints whether they output the same values, the cycles\n" +
+                "each took (loads and stores 5, mult 3, the rest 1, one operation\n" +
+                "issued per cycle) and how long simulating took to stderr. Memory read\n" +
+                "before it is written reads 0. A block that reads a register before\n" +
+                "writing it has no defined outputs, so the first such register is\n" +
+                "reported instead. The result cache is not used with -i.\n" +
+                "======================================================================\n" +
+                "-c <directory> [-C <megabytes>]\n" +
+                "-----------\n" +
+                "Keeps allocated blocks in <directory> and gives back the kept one when\n" +
+                "the same block (ignoring whitespace and comments) is allocated to the\n" +
+                "same k by the same allocator again, without renaming or allocating.\n" +
+                "The blocks used least recently are deleted when they take more than\n" +
+                "<megabytes> (256 by default). With -s a hit or miss is reported; with\n" +
+                "-b the number of hits and misses. Not used with -t or -i.\n" +
+                "======================================================================\n" +
+                "412alloc -g k <file name>\n" +
+                "-----------\n" +
+                "Allocates with graph coloring (Chaitin-Briggs) over the live ranges of\n" +
+                "the whole block instead of the bottom-up local allocator. Values that\n" +
+                "get no register are spilled everywhere, which keeps 3 of the k\n" +
+                "registers for spill code, so k must be at least 3. -g can't be used\n" +
+                "with -l or -t.\n" +
+                "======================================================================\n" +
+                "412alloc -l k <file name>\n" +
+                "-----------\n" +
+                "Allocates with linear scan over the live ranges, a single pass that\n" +
+                "usually leaves more spill code than the default allocator. Spills like\n" +
+                "-g, so k must be at least 3. -l can't be used with -g or -t.\n" +
+                "======================================================================\n" +
+                "412alloc -p [-j <threads>] k <file name>\n" +
+                "-----------\n" +
+                "Parses the file on <threads> threads (one per processor by default),\n" +
+                "each taking a piece of the memory mapped file that starts on a line\n" +
+                "of its own. Only worth it for files of many megabytes; the result and\n" +
+                "the syntax errors are the same as without -p. -p can also be used\n" +
+                "with -x.\n" +
+                "======================================================================\n" +
+                "412alloc -b [-j <threads>] -o <directory> k <files or directories>\n" +
+                "-----------\n" +
+                "Allocates every file given, and every file in the directories given,\n" +
+                "in one run on <threads> threads (one per processor by default). Each\n" +
+                "result goes to a file of the same name in <directory>. Syntax errors\n" +
+                "are printed with the name of their file, and the number of files and\n" +
+                "operations allocated per second is printed at the end. -g and -l\n" +
+                "choose the allocator, and -v, -e, -r and -c work, as for a single file.\n" +
+                "======================================================================\n" +
+                "412alloc -d <port or socket path>\n" +
+                "-----------\n" +
+                "Runs as a server that allocates blocks sent to it, on localhost TCP\n" +
+                "when given a port number and on a Unix domain socket otherwise. Each\n" +
+                "request is a line \"ALLOC k <length>\" followed by <length> bytes of\n" +
+                "ILOC, answered by \"OK <length>\" and the allocated block, or by\n" +
+                "\"ERROR <length>\" and the syntax errors. Any number of requests can\n" +
+                "be sent on one connection, and each connection is served on a thread\n" +
+                "of its own, so clients are answered in parallel. A socket file left by\n" +
+                "a killed server is replaced. \"STATS\" is answered with the number of\n" +
+                "requests and their latency percentiles, which are also printed when\n" +
+                "the server is stopped.\n"
         );
     }
 
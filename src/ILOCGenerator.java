@@ -0,0 +1,305 @@
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Generates random but valid ILOC blocks for benchmarking and stress testing the allocator.
+ *
+ * Every register is defined before it is used. Each defined value is given a live range drawn
+ * from a distribution, is used while it is live (its first operand use is always the value that
+ * expires first, so ranges really end near their expiry) and then dies, freeing its source
+ * register name for reuse. Loads and stores go through an address register set up by a loadI
+ * right before them, to word aligned addresses below the allocator's spill area. The block is
+ * written as it is generated, so its length is not limited by memory.
+ */
+public class ILOCGenerator {
+
+    /**
+     * The live range distributions the generator can draw from
+     */
+    public static final int GEOMETRIC = 0;
+    public static final int UNIFORM = 1;
+
+    /**
+     * The first and one past the last memory address the block reads and writes
+     */
+    private static final int MEM_START = 1024;
+    private static final int MEM_END = 1024 + 4 * 1024;
+
+    //                                      0        1        2       3      4      5        6
+    private static final String[] opCodeStrings = new String[]{"load", "loadI", "store", "add", "sub", "mult", "lshift",
+            "rshift", "output", "nop"};
+    //         7         8        9
+
+    private final Random random;
+    private final int maxLive;
+    private final int meanLiveRange;
+    private final int distribution;
+    private final double commentDensity;
+
+    /**
+     * The live values as a min heap on their expiry: liveSR[i] is the source register holding the
+     * value and liveExpiry[i] the index of the operation after which it dies
+     */
+    private final int[] liveSR;
+    private final long[] liveExpiry;
+    private int liveCount;
+
+    /**
+     * The stack of source register numbers that hold no live value
+     */
+    private final int[] freeSRs;
+    private int freeSRCount;
+
+    /**
+     * The next source register number never used so far
+     */
+    private int nextSR;
+
+    /**
+     * The address of the last store, which outputs favour so they show computed values
+     */
+    private int lastStoreAddress = MEM_START;
+
+    /**
+     * @param seed the random seed, the same seed and settings always give the same block
+     * @param maxLive the maximum number of values live at once (at least 2)
+     * @param meanLiveRange the mean distance in operations from a definition to the death of its value
+     * @param distribution GEOMETRIC or UNIFORM (between 1 and twice the mean)
+     * @param commentDensity the probability of a comment line in front of each operation
+     */
+    public ILOCGenerator(long seed, int maxLive, int meanLiveRange, int distribution, double commentDensity) {
+        this.random = new Random(seed);
+        this.maxLive = Math.max(maxLive, 2);
+        this.meanLiveRange = Math.max(meanLiveRange, 1);
+        this.distribution = distribution;
+        this.commentDensity = commentDensity;
+        this.liveSR = new int[this.maxLive];
+        this.liveExpiry = new long[this.maxLive];
+        this.freeSRs = new int[this.maxLive + 1];
+    }
+
+    /**
+     * Writes a block of the given number of operations
+     * @param out where to write the block
+     * @param numOps the number of operations
+     * @throws IOException if writing fails
+     */
+    public void generate(Writer out, long numOps) throws IOException {
+        // i counts the operations written, a load or store takes two with the loadI of its address
+        for (long i = 0; i < numOps; i++) {
+            boolean lastOp = i == numOps - 1; // no room for a load or store
+            while (this.liveCount > 0 && this.liveExpiry[0] < i)
+                this.freeSRs[this.freeSRCount++] = this.liveSR[this.popEarliest()];
+
+            if (this.random.nextDouble() < this.commentDensity)
+                out.write("// generated operation " + i + "\n");
+
+            int choice = this.liveCount < 2 ? 0 : this.random.nextInt(100);
+            if (lastOp && choice >= 70 && choice < 92)
+                choice = 15; // an arithop instead
+            if (choice < 15) { // loadI
+                if (this.liveCount == this.maxLive && !lastOp) { // no room, store the value that dies first instead
+                    int sr = this.liveSR[this.popEarliest()];
+                    this.writeStore(out, sr);
+                    i++;
+                    this.freeSRs[this.freeSRCount++] = sr;
+                    continue;
+                }
+                if (this.liveCount == this.maxLive) // the last operation, the value that dies first is dropped
+                    this.freeSRs[this.freeSRCount++] = this.liveSR[this.popEarliest()];
+                int sr = this.define(i);
+                out.write("loadI " + this.random.nextInt(4096) + " => r" + sr + "\n");
+            } else if (choice < 70) { // arithop
+                int use1 = this.liveSR[0]; // the value that dies first
+                int use2 = this.liveSR[this.random.nextInt(this.liveCount)];
+                if (this.liveCount == this.maxLive)
+                    this.freeSRs[this.freeSRCount++] = this.liveSR[this.popEarliest()];
+                int sr = this.define(i);
+                out.write(opCodeStrings[3 + this.random.nextInt(5)] + " r" + use1 + ", r" + use2 + " => r" + sr + "\n");
+            } else if (choice < 80) { // load
+                int address = this.address();
+                int sr = this.liveCount == this.maxLive ? this.liveSR[this.popEarliest()] : this.nextFreeSR();
+                out.write("loadI " + address + " => r" + sr + "\n");
+                out.write("load r" + sr + " => r" + sr + "\n");
+                this.push(sr, ++i + this.liveRange());
+            } else if (choice < 92) { // store
+                this.writeStore(out, this.liveSR[this.random.nextInt(this.liveCount)]);
+                i++;
+            } else if (choice < 97) { // output
+                out.write("output " + (this.random.nextBoolean() ? this.lastStoreAddress : this.address()) + "\n");
+            } else {
+                out.write("nop\n");
+            }
+        }
+    }
+
+    /**
+     * Writes a store of the value in sr to a random address, through a temporary address register
+     */
+    private void writeStore(Writer out, int sr) throws IOException {
+        int addressSR = this.nextFreeSR();
+        this.lastStoreAddress = this.address();
+        out.write("loadI " + this.lastStoreAddress + " => r" + addressSR + "\n");
+        out.write("store r" + sr + " => r" + addressSR + "\n");
+        this.freeSRs[this.freeSRCount++] = addressSR;
+    }
+
+    /**
+     * Makes a new live value
+     * @param i the index of the defining operation
+     * @return the source register the value is defined into
+     */
+    private int define(long i) {
+        int sr = this.nextFreeSR();
+        this.push(sr, i + this.liveRange());
+        return sr;
+    }
+
+    /**
+     * @return a source register that holds no live value
+     */
+    private int nextFreeSR() {
+        if (this.freeSRCount > 0)
+            return this.freeSRs[--this.freeSRCount];
+        return this.nextSR++;
+    }
+
+    /**
+     * @return a live range length drawn from the distribution
+     */
+    private long liveRange() {
+        if (this.distribution == UNIFORM)
+            return 1 + this.random.nextInt(2 * this.meanLiveRange);
+        double p = 1.0 / this.meanLiveRange;
+        return 1 + (long) (Math.log(1 - this.random.nextDouble()) / Math.log(1 - p + 1e-12));
+    }
+
+    /**
+     * @return a random word aligned address in the block's memory
+     */
+    private int address() {
+        return MEM_START + 4 * this.random.nextInt((MEM_END - MEM_START) / 4);
+    }
+
+    /**
+     * Adds a live value to the heap
+     */
+    private void push(int sr, long expiry) {
+        int i = this.liveCount++;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (this.liveExpiry[parent] <= expiry)
+                break;
+            this.liveSR[i] = this.liveSR[parent];
+            this.liveExpiry[i] = this.liveExpiry[parent];
+            i = parent;
+        }
+        this.liveSR[i] = sr;
+        this.liveExpiry[i] = expiry;
+    }
+
+    /**
+     * Removes the value that expires first from the heap. Its register is left in the slot just
+     * past the end of the heap.
+     * @return the index of that slot
+     */
+    private int popEarliest() {
+        int sr = this.liveSR[0];
+        long expiry = this.liveExpiry[0];
+        int last = --this.liveCount;
+        int lastSR = this.liveSR[last];
+        long lastExpiry = this.liveExpiry[last];
+        int i = 0;
+        while (2 * i + 1 < last) {
+            int child = 2 * i + 1;
+            if (child + 1 < last && this.liveExpiry[child + 1] < this.liveExpiry[child])
+                child++;
+            if (lastExpiry <= this.liveExpiry[child])
+                break;
+            this.liveSR[i] = this.liveSR[child];
+            this.liveExpiry[i] = this.liveExpiry[child];
+            i = child;
+        }
+        this.liveSR[i] = lastSR;
+        this.liveExpiry[i] = lastExpiry;
+        this.liveSR[last] = sr;
+        this.liveExpiry[last] = expiry;
+        return last;
+    }
+
+    /**
+     * Writes a block straight to a file
+     * @param filePath the file to write
+     * @param numOps the number of operations
+     * @throws IOException if writing fails
+     */
+    public void generateFile(String filePath, long numOps) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filePath), "US-ASCII"), 1 << 16)) {
+            this.generate(out, numOps);
+        }
+    }
+
+    /**
+     * The command line entry point
+     * @param args the arguments in the command line, see showCommandLineInfo
+     */
+    public static void main(String[] args) throws IOException {
+        if (inArgs("-h", args)) {
+            showCommandLineInfo();
+            return;
+        }
+        long numOps = Long.parseLong(argValue("-n", args, "1000"));
+        ILOCGenerator generator = new ILOCGenerator(
+                Long.parseLong(argValue("-s", args, "1")),
+                Integer.parseInt(argValue("-m", args, "16")),
+                Integer.parseInt(argValue("-l", args, "8")),
+                argValue("-d", args, "geometric").equals("uniform") ? UNIFORM : GEOMETRIC,
+                Double.parseDouble(argValue("-c", args, "0")));
+        String outPath = argValue("-o", args, null);
+        if (outPath != null) {
+            generator.generateFile(outPath, numOps);
+        } else {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, "US-ASCII"), 1 << 16);
+            generator.generate(out, numOps);
+            out.flush();
+        }
+    }
+
+    /**
+     * @param string the string to search for
+     * @param args the String array to search for the string in
+     * @return whether string is in args
+     */
+    private static boolean inArgs(String string, String[] args) {
+        for (String arg: args) {
+            if (arg.equals(string))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the argument following flag, or defaultValue if flag is not given
+     */
+    private static String argValue(String flag, String[] args, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(flag))
+                return args[i + 1];
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Shows the command line info
+     */
+    private static void showCommandLineInfo() {
+        System.out.print("ILOCGenerator [-n ops] [-s seed] [-m max live] [-l mean live range]\n" +
+                "              [-d geometric|uniform] [-c comment density] [-o file]\n" +
+                "-----------\n" +
+                "Writes a random valid ILOC block of the given number of operations to\n" +
+                "the file (stdout by default). -m bounds how many values are live at\n" +
+                "once, -l and -d set how long each value lives, -c is the probability of\n" +
+                "a comment line before an operation (0 to 1) and -s the random seed.\n"
+        );
+    }
+}
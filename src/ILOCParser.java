@@ -1,6 +1,6 @@
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
 
 /**
  * A class for parsing a block of ILOC code
@@ -18,9 +18,9 @@ public class ILOCParser {
     public final String[] opCodeStrings;
 
     /**
-     * The IR doubly link list only valid if Parse returns -1
+     * The IR, packed into int columns. Only valid if Parse returns -1
      */
-    private LinkedList<Integer[]> iRep;
+    private IntRepList iRep;
 
     /**
      * The translator from integer into strings to show token types for output
@@ -50,14 +50,62 @@ public class ILOCParser {
      */
     private int maxSRNum = 0;
 
+    /**
+     * Counts the lines to report where errors are
+     */
+    private int lineCount = 1;
+
+    /**
+     * Whether every statement so far was correct
+     */
+    private boolean success = true;
+
+    /**
+     * The type of the token the last statement started with, 9 once the file has been read
+     */
+    private int tokenType = -1;
+
+    /**
+     * Whether syntax errors are printed
+     */
+    private boolean reportErrors = true;
+
+    /**
+     * Where syntax errors are printed
+     */
+    private PrintStream errorStream = System.err;
+
     /**
      * Creates an ILOC Parser
      *
      * @param filePath the absolute path to the file to parse
      */
     public ILOCParser(String filePath, boolean printTokens, boolean printIR) {
-        // create the intermediate representation as a linked list of int arrays
-        this.iRep = new LinkedList<>();
+        this(filePath, printTokens, printIR, false);
+    }
+
+    /**
+     * Creates an ILOC Parser
+     *
+     * @param filePath the absolute path to the file to parse
+     * @param memoryMapped whether the scanner should memory map the file instead of streaming it
+     */
+    public ILOCParser(String filePath, boolean printTokens, boolean printIR, boolean memoryMapped) {
+        this(new ILOCScanner(filePath, printTokens, memoryMapped), printIR);
+    }
+
+    /**
+     * Creates an ILOC Parser for a block already in memory
+     *
+     * @param input the ILOC text, from its position to its limit
+     */
+    public ILOCParser(ByteBuffer input) {
+        this(new ILOCScanner(input, false), false);
+    }
+
+    private ILOCParser(ILOCScanner scanner, boolean printIR) {
+        // create the intermediate representation as packed int columns
+        this.iRep = new IntRepList();
         this.errNlEnd = false;
         this.printIR = printIR;
 
@@ -71,7 +119,26 @@ public class ILOCParser {
                 "rshift", "output", "nop", ",", "=>", "NOT IN LEXEME"};
         //         7         8        9    10    11        12
 
-        this.scanner = new ILOCScanner(filePath, printTokens);
+        this.scanner = scanner;
+    }
+
+    /**
+     * Starts over on a new block, keeping the scanner and its tables, so one parser can be used
+     * for many blocks
+     *
+     * @param input the ILOC text, from its position to its limit
+     * @param into the list to parse into, cleared first
+     */
+    public void reset(ByteBuffer input, IntRepList into) {
+        this.scanner.reset(input);
+        into.clear();
+        this.iRep = into;
+        this.errNlEnd = false;
+        this.lastErrorLine = 0;
+        this.maxSRNum = 0;
+        this.lineCount = 1;
+        this.success = true;
+        this.tokenType = -1;
     }
 
     /**
@@ -94,7 +161,7 @@ public class ILOCParser {
      * generated by parsing the ILOC code block
      * @return iRep, the intermediate representation
      */
-    public LinkedList<Integer[]> ParseGetIRep() {
+    public IntRepList ParseGetIRep() {
         this.Parse();
         return this.iRep;
     }
@@ -107,6 +174,21 @@ public class ILOCParser {
         return maxSRNum;
     }
 
+    /**
+     * @param firstLine the line number of the first line of the input, for error messages, 1 by
+     *                  default. Used when the input is a piece of a larger file.
+     */
+    public void setFirstLine(int firstLine) {
+        this.lineCount = firstLine;
+    }
+
+    /**
+     * @return whether every statement parsed so far was correct
+     */
+    public boolean isSuccess() {
+        return this.success;
+    }
+
     /**
      * The parse method that doens't throw an exception
      */
@@ -119,102 +201,31 @@ public class ILOCParser {
         }
     }
 
+    /**
+     * Parses the next operation of the file into the given list, so a block can be read a piece
+     * at a time instead of all at once. Statements with errors are reported and skipped.
+     *
+     * @param into the list to append the operation to
+     * @return false if the end of the file was reached without finding another operation
+     * @throws IOException if there is a read error in the input stream from the file
+     */
+    public boolean ParseNext(IntRepList into) throws IOException {
+        this.iRep = into;
+        int size = into.size();
+        while (into.size() == size) {
+            if (this.ParseStatement() == 9)
+                return into.size() != size;
+        }
+        return true;
+    }
+
     /**
      * Parses the given file and checks if it follows the correct ILOC syntax
      *\
      * @throws IOException if there is a read error in the input stream from the file
      */
     private void ParseException() throws IOException {
-        boolean success = true;
-        /**
-         * Keeps track of the linecount
-         */
-        Integer lineCount = 1; // counts the line to return where the error was
-
-        // start with "NEWLINE". So parser can check that each op starts with a newline.
-        Integer[] nextToken = new Integer[]{-1, -1};
-        while (nextToken[0] != 9) { // keep going until end of file
-            // keep track of the line for correct error product
-
-            nextToken = this.scanner.NextToken();
-            //System.out.println(tokenTypeStrings[nextToken[0]]); // for debugging purposes
-            // add reg and constant case
-            switch (nextToken[0]) {
-                // MEMOP
-                case 0 :
-                    if (!this.MemopCheck(nextToken[1])) {
-                        if (this.lastErrorLine != lineCount)
-                            System.err.println("" + lineCount + ": Incorrect MEMOP syntax");
-                        this.lastErrorLine = lineCount;
-                        success = false;
-                    } else {
-                        lineCount++;
-                    }
-
-                    break;
-                // LOADI
-                case 1 :
-                    if (!this.LoadICheck(nextToken[1])) {
-                        if (this.lastErrorLine != lineCount)
-                            System.err.println("" + lineCount + ": Incorrect LOADI syntax");
-                        this.lastErrorLine = lineCount;
-                        success = false;
-                    } else {
-                        lineCount++;
-                    }
-                    break;
-                // ARITHOP
-                case 2 :
-                    if (!this.ArithopCheck(nextToken[1])) {
-                        if (this.lastErrorLine != lineCount)
-                            System.err.println("" + lineCount + ": Incorrect ARITHOP syntax");
-                        this.lastErrorLine = lineCount;
-                        success = false;
-                    } else {
-                        lineCount++;
-                    }
-                    break;
-                // OUTPUT
-                case 3 :
-                    if (!this.OutputCheck(nextToken[1])) {
-                        if (this.lastErrorLine != lineCount)
-                            System.err.println("" + lineCount + ": Incorrect OUTPUT syntax");
-                        this.lastErrorLine = lineCount;
-                        success = false;
-                    } else {
-                        lineCount++;
-                    }
-                    break;
-                // NOP
-                case 4 :
-                    if (!this.NOPCheck(nextToken[1])) {
-                        if (this.lastErrorLine != lineCount)
-                            System.err.println("" + lineCount + ": Incorrect NOP syntax");
-                        this.lastErrorLine = lineCount;
-                        success = false;
-                    } else {
-                        lineCount++;
-                    }
-                    break;
-                // EOF
-                case 9 :
-                    // IF EOF reached on the beginning of a newline, just ignore
-                    break;
-                case 10:
-                case 11:
-                    lineCount++;
-                    break;
-                default :
-                    if (errNlEnd) {
-                        lineCount++;
-                        errNlEnd = false;
-                    }
-                    if (this.lastErrorLine != lineCount)
-                        System.err.println("" + lineCount + ": Statement must start with an Opcode");
-                    this.lastErrorLine = lineCount;
-                    success = false;
-                    break;
-            }
+        while (this.ParseStatement() != 9) { // keep going until end of file
         }
         if (this.printIR)
             this.ShowRep();
@@ -222,15 +233,136 @@ public class ILOCParser {
 //            System.out.println("Parse success with " + this.iRep.size() + " operations total.");
     }
 
+    /**
+     * Parses one statement: an operation, or a comment or empty line
+     *
+     * @return the type of the token the statement started with, 9 at the end of the file
+     * @throws IOException if there is a read error in the input stream from the file
+     */
+    private int ParseStatement() throws IOException {
+        if (this.tokenType == 9) // nothing after the end of the file
+            return 9;
+        this.scanner.advance();
+        int tokenType = this.scanner.getTokenType();
+        //System.out.println(tokenTypeStrings[tokenType]); // for debugging purposes
+        // add reg and constant case
+        switch (tokenType) {
+            // MEMOP
+            case 0 :
+                if (!this.MemopCheck(this.scanner.getTokenValue())) {
+                    this.StatementError("Incorrect MEMOP syntax");
+                } else {
+                    this.lineCount++;
+                }
+
+                break;
+            // LOADI
+            case 1 :
+                if (!this.LoadICheck(this.scanner.getTokenValue())) {
+                    this.StatementError("Incorrect LOADI syntax");
+                } else {
+                    this.lineCount++;
+                }
+                break;
+            // ARITHOP
+            case 2 :
+                if (!this.ArithopCheck(this.scanner.getTokenValue())) {
+                    this.StatementError("Incorrect ARITHOP syntax");
+                } else {
+                    this.lineCount++;
+                }
+                break;
+            // OUTPUT
+            case 3 :
+                if (!this.OutputCheck(this.scanner.getTokenValue())) {
+                    this.StatementError("Incorrect OUTPUT syntax");
+                } else {
+                    this.lineCount++;
+                }
+                break;
+            // NOP
+            case 4 :
+                if (!this.NOPCheck(this.scanner.getTokenValue())) {
+                    this.StatementError("Incorrect NOP syntax");
+                } else {
+                    this.lineCount++;
+                }
+                break;
+            // EOF
+            case 9 :
+                // IF EOF reached on the beginning of a newline, just ignore
+                this.scanner.close();
+                break;
+            case 10:
+            case 11:
+                this.lineCount++;
+                break;
+            default :
+                this.StatementError("Statement must start with an Opcode");
+                break;
+        }
+        this.tokenType = tokenType;
+        return tokenType;
+    }
+
+    /**
+     * Reports a statement with an error. If the check stopped at the newline ending the line, the
+     * newline has been read already, so the line is counted here.
+     * @param message what is wrong with the statement
+     */
+    private void StatementError(String message) {
+        this.ReportError(message);
+        this.success = false;
+        if (this.errNlEnd) {
+            this.lineCount++;
+            this.errNlEnd = false;
+        }
+    }
+
+    /**
+     * Prints a syntax error for the current line, once per line
+     * @param message what is wrong with the line
+     */
+    private void ReportError(String message) {
+        if (this.reportErrors && this.lastErrorLine != this.lineCount)
+            this.errorStream.println("" + this.lineCount + ": " + message);
+        this.lastErrorLine = this.lineCount;
+    }
+
+    /**
+     * @param reportErrors whether syntax errors are printed to stderr, true by default
+     */
+    public void setReportErrors(boolean reportErrors) {
+        this.reportErrors = reportErrors;
+    }
+
+    /**
+     * @param errorStream where syntax errors are printed, System.err by default
+     */
+    public void setErrorStream(PrintStream errorStream) {
+        this.errorStream = errorStream;
+    }
+
     /**
      * Prints out the representation
      */
     public void ShowRep() {
-        for (Integer[] rep : iRep) {
-            System.out.println(" " + opCodeStrings[rep[0]] + " " + rep[1] + " " + rep[5] + " " + rep[9]);
+        for (int op = 0; op < iRep.size(); op++) {
+            System.out.println(" " + opCodeStrings[iRep.getOpCode(op)] + " " + fieldString(op, 1) + " "
+                    + fieldString(op, 5) + " " + fieldString(op, 9));
         }
     }
 
+    /**
+     * @param op the operation index
+     * @param field the field index
+     * @return the field as a string, "-" if the operation doesn't use it
+     */
+    private String fieldString(int op, int field) {
+        int value = iRep.get(op, field);
+        return value == IntRepList.ABSENT ? "-" : String.valueOf(value);
+    }
+
     /**
      * Check that the MEMOP statement follows its syntax
      *
@@ -238,39 +370,38 @@ public class ILOCParser {
      * @throws IOException if the scanner's input stream throws an exception
      */
     private boolean MemopCheck(int opCode) throws IOException {
-        Integer[] nextToken = this.scanner.NextToken(); // keep this for IR stuff
-        Integer[] iRepElement = new Integer[13];
-        iRepElement[0] = opCode; // store the opCode as the first element
+        this.scanner.advance(); // keep this for IR stuff
+        int iRepElement = this.iRep.beginOp(opCode); // store the opCode as the first element
 
-        iRepElement[1] = nextToken[1]; // store the register number at index one
-        if (nextToken[0] != 6) {// check that next is REG
-            if (nextToken[0] == 11 || nextToken[0] == 10)
+        this.iRep.set(iRepElement, 1, this.scanner.getTokenValue()); // store the register number at index one
+        if (this.scanner.getTokenType() != 6) {// check that next is REG
+            if (this.scanner.getTokenType() == 11 || this.scanner.getTokenType() == 10)
                 errNlEnd = true;
             return false;
         }
-        this.updateMaxSRNum(nextToken[1]);
+        this.updateMaxSRNum(this.scanner.getTokenValue());
 
 
-        nextToken = this.scanner.NextToken();
+        this.scanner.advance();
         // no need to store INTO
-        if (nextToken[0] != 8) { // check that next is INTO
-            if (nextToken[0] == 11 || nextToken[0] == 10)
+        if (this.scanner.getTokenType() != 8) { // check that next is INTO
+            if (this.scanner.getTokenType() == 11 || this.scanner.getTokenType() == 10)
                 errNlEnd = true;
             return false;
         }
 
-        nextToken = this.scanner.NextToken();
-        iRepElement[9] = nextToken[1]; // store next reg number at index 9
-        if (nextToken[0] != 6) { // check that next is REG
-            if (nextToken[0] == 11 || nextToken[0] == 10)
+        this.scanner.advance();
+        this.iRep.set(iRepElement, 9, this.scanner.getTokenValue()); // store next reg number at index 9
+        if (this.scanner.getTokenType() != 6) { // check that next is REG
+            if (this.scanner.getTokenType() == 11 || this.scanner.getTokenType() == 10)
                 errNlEnd = true;
             return false;
         }
-        this.updateMaxSRNum(nextToken[1]);
+        this.updateMaxSRNum(this.scanner.getTokenValue());
 
-        nextToken = this.scanner.NextToken();
-        if (nextToken[0] == 11 || nextToken[0] == 9 || nextToken[0] == 10) { // check ends with nextline
-            this.iRep.add(iRepElement);
+        this.scanner.advance();
+        if (this.scanner.getTokenType() == 11 || this.scanner.getTokenType() == 9 || this.scanner.getTokenType() == 10) { // check ends with nextline
+            this.iRep.commitOp();
             return true;
         }
         return false;
@@ -283,37 +414,36 @@ public class ILOCParser {
      * @throws IOException if the scanner's input stream throws an exception
      */
     private boolean LoadICheck(int opCode) throws IOException {
-        Integer[] nextToken = this.scanner.NextToken();
-        Integer[] iRepElement = new Integer[13];
-        iRepElement[0] = opCode; // store the opCode as the first element
+        this.scanner.advance();
+        int iRepElement = this.iRep.beginOp(opCode); // store the opCode as the first element
 
-        iRepElement[1] = nextToken[1]; // store the constant
-        if (nextToken[0] != 5) {// check next CONSTANT
-            if (nextToken[0] == 11 || nextToken[0] == 10)
+        this.iRep.set(iRepElement, 1, this.scanner.getTokenValue()); // store the constant
+        if (this.scanner.getTokenType() != 5) {// check next CONSTANT
+            if (this.scanner.getTokenType() == 11 || this.scanner.getTokenType() == 10)
                 errNlEnd = true;
             return false;
         }
 
-        nextToken = this.scanner.NextToken();
+        this.scanner.advance();
         // don't store into
-        if (nextToken[0] != 8) { // check next INTO
-            if (nextToken[0] == 11 || nextToken[0] == 10)
+        if (this.scanner.getTokenType() != 8) { // check next INTO
+            if (this.scanner.getTokenType() == 11 || this.scanner.getTokenType() == 10)
                 errNlEnd = true;
             return false;
         }
 
-        nextToken = this.scanner.NextToken();
-        iRepElement[9] = nextToken[1]; //store the register
-        if(nextToken[0] != 6) { // check next REG
-            if (nextToken[0] == 11 || nextToken[0] == 10)
+        this.scanner.advance();
+        this.iRep.set(iRepElement, 9, this.scanner.getTokenValue()); //store the register
+        if(this.scanner.getTokenType() != 6) { // check next REG
+            if (this.scanner.getTokenType() == 11 || this.scanner.getTokenType() == 10)
                 errNlEnd = true;
             return false;
         }
-        this.updateMaxSRNum(nextToken[1]);
+        this.updateMaxSRNum(this.scanner.getTokenValue());
 
-        nextToken = this.scanner.NextToken();
-        if (nextToken[0] == 11 || nextToken[0] == 9 || nextToken[0] == 10) { // check ends with nextline
-            this.iRep.add(iRepElement);
+        this.scanner.advance();
+        if (this.scanner.getTokenType() == 11 || this.scanner.getTokenType() == 9 || this.scanner.getTokenType() == 10) { // check ends with nextline
+            this.iRep.commitOp();
             return true;
         }
         return false;
@@ -326,56 +456,55 @@ public class ILOCParser {
      * @throws IOException if the scanner's input stream throws an exception
      */
     private boolean ArithopCheck(int opCode) throws IOException {
-        Integer[] nextToken = this.scanner.NextToken();
-        Integer[] iRepElement = new Integer[13];
-        iRepElement[0] = opCode; // store the opCode as the first element
+        this.scanner.advance();
+        int iRepElement = this.iRep.beginOp(opCode); // store the opCode as the first element
 
-        iRepElement[1] = nextToken[1]; // store the reg
-        if (nextToken[0] != 6) {// check next REG
-            if (nextToken[0] == 11 || nextToken[0] == 10)
+        this.iRep.set(iRepElement, 1, this.scanner.getTokenValue()); // store the reg
+        if (this.scanner.getTokenType() != 6) {// check next REG
+            if (this.scanner.getTokenType() == 11 || this.scanner.getTokenType() == 10)
                 errNlEnd = true;
             return false;
         }
-        this.updateMaxSRNum(nextToken[1]);
+        this.updateMaxSRNum(this.scanner.getTokenValue());
 
-        nextToken = this.scanner.NextToken();
+        this.scanner.advance();
         // don't store comma
-        if (nextToken[0] != 7) { // check next COMMA
-            if (nextToken[0] == 11 || nextToken[0] == 10)
+        if (this.scanner.getTokenType() != 7) { // check next COMMA
+            if (this.scanner.getTokenType() == 11 || this.scanner.getTokenType() == 10)
                 errNlEnd = true;
             return false;
         }
 
 
-        nextToken = this.scanner.NextToken();
-        iRepElement[5] = nextToken[1]; // store the next reg
-        if (nextToken[0] != 6) {// check next REG
-            if (nextToken[0] == 11 || nextToken[0] == 10)
+        this.scanner.advance();
+        this.iRep.set(iRepElement, 5, this.scanner.getTokenValue()); // store the next reg
+        if (this.scanner.getTokenType() != 6) {// check next REG
+            if (this.scanner.getTokenType() == 11 || this.scanner.getTokenType() == 10)
                 errNlEnd = true;
             return false;
         }
-        this.updateMaxSRNum(nextToken[1]);
+        this.updateMaxSRNum(this.scanner.getTokenValue());
 
-        nextToken = this.scanner.NextToken();
+        this.scanner.advance();
         // don't store INTO
-        if (nextToken[0] != 8){ // check next INTO
-            if (nextToken[0] == 11 || nextToken[0] == 10)
+        if (this.scanner.getTokenType() != 8){ // check next INTO
+            if (this.scanner.getTokenType() == 11 || this.scanner.getTokenType() == 10)
                 errNlEnd = true;
             return false;
         }
 
-        nextToken = this.scanner.NextToken();
-        iRepElement[9] = nextToken[1]; // store the final reg
-        if (nextToken[0] != 6) { // check next REG
-            if (nextToken[0] == 11 || nextToken[0] == 10)
+        this.scanner.advance();
+        this.iRep.set(iRepElement, 9, this.scanner.getTokenValue()); // store the final reg
+        if (this.scanner.getTokenType() != 6) { // check next REG
+            if (this.scanner.getTokenType() == 11 || this.scanner.getTokenType() == 10)
                 errNlEnd = true;
             return false;
         }
-        this.updateMaxSRNum(nextToken[1]);
+        this.updateMaxSRNum(this.scanner.getTokenValue());
 
-        nextToken = this.scanner.NextToken();
-        if (nextToken[0] == 11 || nextToken[0] == 9 || nextToken[0] == 10) { // check ends with nextline
-            this.iRep.add(iRepElement);
+        this.scanner.advance();
+        if (this.scanner.getTokenType() == 11 || this.scanner.getTokenType() == 9 || this.scanner.getTokenType() == 10) { // check ends with nextline
+            this.iRep.commitOp();
             return true;
         }
         return false;
@@ -388,20 +517,19 @@ public class ILOCParser {
      * @throws IOException if the scanner's input stream throws an exception
      */
     private boolean OutputCheck(int opCode) throws IOException {
-        Integer[] nextToken = this.scanner.NextToken();
-        Integer[] iRepElement = new Integer[13];
-        iRepElement[0] = opCode; // store the opCode as the first element
+        this.scanner.advance();
+        int iRepElement = this.iRep.beginOp(opCode); // store the opCode as the first element
 
-        iRepElement[1] = nextToken[1]; // store the constant
-        if (nextToken[0] != 5) {// check next CONSTANT
-            if (nextToken[0] == 11 || nextToken[0] == 10)
+        this.iRep.set(iRepElement, 1, this.scanner.getTokenValue()); // store the constant
+        if (this.scanner.getTokenType() != 5) {// check next CONSTANT
+            if (this.scanner.getTokenType() == 11 || this.scanner.getTokenType() == 10)
                 errNlEnd = true;
             return false;
         }
 
-        nextToken = this.scanner.NextToken();
-        if (nextToken[0] == 11 || nextToken[0] == 9 || nextToken[0] == 10) { // check ends with nextline
-            this.iRep.add(iRepElement);
+        this.scanner.advance();
+        if (this.scanner.getTokenType() == 11 || this.scanner.getTokenType() == 9 || this.scanner.getTokenType() == 10) { // check ends with nextline
+            this.iRep.commitOp();
             return true;
         }
         return false;
@@ -414,12 +542,11 @@ public class ILOCParser {
      * @throws IOException when inputstream in scanner fails ot read
      */
     private boolean NOPCheck(int opCode) throws IOException {
-        Integer[] iRepElement = new Integer[13];
-        iRepElement[0] = opCode; // store the opCode as the first element
+        int iRepElement = this.iRep.beginOp(opCode); // store the opCode as the first element
 
-        Integer[] nextToken = this.scanner.NextToken();
-        if (nextToken[0] == 11 || nextToken[0] == 9 || nextToken[0] == 10) { // check ends with nextline
-            this.iRep.add(iRepElement);
+        this.scanner.advance();
+        if (this.scanner.getTokenType() == 11 || this.scanner.getTokenType() == 9 || this.scanner.getTokenType() == 10) { // check ends with nextline
+            this.iRep.commitOp();
             return true;
         }
         return false;
@@ -1,6 +1,6 @@
 import java.io.*;
-import java.util.HashMap;
-import java.util.Stack;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * A class meant to scan the next word in an ILOC file.
@@ -13,14 +13,35 @@ public class ILOCScanner {
     BufferedInputStream bufInStream;
 
     /**
-     * Classifier table
+     * The input when it is in memory: the memory mapped file, or the bytes the scanner was given.
+     * null when reading through the stream.
      */
-    HashMap<Character, Integer> classifierTable;
+    ByteBuffer buffer;
 
     /**
-     * Transition table
+     * The offset of the next byte to read from buffer
      */
-    Integer[][] transitionTable;
+    int bufferPos;
+
+    /**
+     * The offset to roll back to in buffer, the equivalent of the stream's mark
+     */
+    int bufferMark;
+
+    /**
+     * The number of character classes, i.e. the number of columns in the transition table
+     */
+    static final int CLASSES = 26;
+
+    /**
+     * Classifier table, indexed by the byte read. EOF is class 24 and has no entry.
+     */
+    int[] classifierTable;
+
+    /**
+     * Transition table, flattened so that transitionTable[state * CLASSES + class] is the next state
+     */
+    int[] transitionTable;
 
     /**
      * The token types represented as strings. The index represents the number assigned to that
@@ -31,13 +52,27 @@ public class ILOCScanner {
     /**
      * The token types represented as integers
      */
-    Integer[] tokenTypeInts;
+    int[] tokenTypeInts;
+
+    /**
+     * The value of the word accepted by each state, see createStateValueTable
+     */
+    int[] stateValues;
 
     /**
-     * The language map represented as integers. This excludes constants and register integer representations,
-     * which are converted in the method langToInt.
+     * The type of the last token scanned by advance
      */
-    HashMap<String, Integer> langMap;
+    int tokenType;
+
+    /**
+     * The value of the last token scanned by advance
+     */
+    int tokenValue;
+
+    /**
+     * The characters of the current token, only kept when printing tokens
+     */
+    StringBuilder lexeme;
 
     /**
      * To keep track of the -s flag to print the token, lexeme tuples
@@ -49,6 +84,40 @@ public class ILOCScanner {
      * @param filePath the absolute file to scan
      */
     public ILOCScanner(String filePath, boolean printTokens) {
+        this(filePath, printTokens, false);
+    }
+
+    /**
+     * The constructor for the scanner
+     * @param filePath the absolute file to scan
+     * @param memoryMapped whether to map the file into memory instead of reading it through a stream
+     */
+    public ILOCScanner(String filePath, boolean printTokens, boolean memoryMapped) {
+        this(printTokens);
+        try {
+            if (memoryMapped)
+                this.mapFile(filePath);
+            else
+                bufInStream = new BufferedInputStream(new FileInputStream(filePath), 1000); // 1 kilobyte buffer
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The constructor for the scanner
+     * @param input the bytes to scan, from its position to its limit
+     */
+    public ILOCScanner(ByteBuffer input, boolean printTokens) {
+        this(printTokens);
+        this.reset(input);
+    }
+
+    /**
+     * Builds the tables, which takes longer than scanning a small block
+     */
+    private ILOCScanner(boolean printTokens) {
         this.classifierTable = this.createClassifierTable(); // establish the classifier Table
         this.transitionTable = this.createTransitionTable(); // establish the transition table
 
@@ -56,123 +125,154 @@ public class ILOCScanner {
         this.tokenTypeStrings = new String[] {"MEMOP", "LOADI", "ARITHOP", "OUTPUT", "NOP", "CONSTANT",
                 "REG", "COMMA", "INTO", "EOF", "COMMENT", "NEWLINE", "ERROR"}; // 13 token types
 
-        this.langMap = createLangMap();
+        this.stateValues = createStateValueTable();
         this.printTokens = printTokens;
+        this.lexeme = new StringBuilder();
+    }
 
-
-        try {
-            bufInStream = new BufferedInputStream(new FileInputStream(filePath), 1000); // 1 kilobyte buffer
-        }
-        catch (Exception e) {
-            e.printStackTrace();
-        }
-
+    /**
+     * Starts scanning new input, keeping the tables, so one scanner can be used for many blocks
+     * @param input the bytes to scan, from its position to its limit
+     */
+    public void reset(ByteBuffer input) {
+        this.bufInStream = null;
+        this.buffer = input.slice();
+        this.bufferPos = 0;
+        this.bufferMark = 0;
+        this.lexeme.setLength(0);
     }
 
     /**
      * Gets the next word character by character
-     * @return The next word
+     * @return The next word as {token type, token value}
      * @throws IOException when there is an error reading from the inputstream
      */
     public Integer[] NextToken() throws IOException {
-        char nextChar; // the next character to be read
+        this.advance();
+        return new Integer[]{this.tokenType, this.tokenValue};
+    }
+
+    /**
+     * Scans the next word and makes its type and value available through getTokenType and
+     * getTokenValue. Nothing is allocated per token: constants and register numbers are
+     * accumulated while walking the DFA, and the rollback only needs the last accepting state.
+     * A constant or register number larger than an int holds is an ERROR token.
+     * @throws IOException when there is an error reading from the inputstream
+     */
+    public void advance() throws IOException {
+        int nextChar; // the next character to be read
         int state = 0; // the current state
-        int charTransition = 20; // the column number for the state, character to next state transition. space default
-        StringBuilder lexeme = new StringBuilder();
-        Stack<Integer> stateStack = new Stack<>();
-        stateStack.push(-2); // -2 represents 'bad'
-        this.bufInStream.mark(Integer.MAX_VALUE); // mark at the beginning ('bad') mark
+        int charTransition; // the column number for the state, character to next state transition
+        int value = 0; // the constant or register number read so far
+        int firstState = 0; // the state entered on the first non whitespace character
+        int length = 0; // the number of characters read
+        int acceptState = -2; // the last accepting state seen, -2 represents 'bad'
+        int acceptValue = 0; // value when acceptState was entered
+        int acceptLength = 0; // length when acceptState was entered
+        if (this.printTokens)
+            this.lexeme.setLength(0);
+        this.Mark(); // mark at the beginning ('bad') mark
 
         while(state != -1) {
-            nextChar = (char) this.NextChar();
+            nextChar = this.NextChar();
+            length++;
+            if (this.printTokens)
+                this.lexeme.append((char) nextChar);
 
-            lexeme.append(nextChar);
-            if (checkAcceptingState(state)) {
-                stateStack.clear();
-            }
-            stateStack.push(state); // track states in the stack
+            charTransition = nextChar < 0 ? 24 : this.classifierTable[nextChar]; // EOF is class 24
 
-            try
-            {
-                charTransition = this.classifierTable.get(nextChar);
+            state = this.transitionTable[state * CLASSES + charTransition]; // transition into the next state
+            if ((state == 37 || state == 38) && charTransition == 23) { // a digit of a constant or register
+                int digit = nextChar - '0';
+                // -1 once the number is too large for an int, so it is scanned as an error
+                value = value < 0 || value > (Integer.MAX_VALUE - digit) / 10 ? -1 : value * 10 + digit;
+            }
+            if (firstState == 0 && state > 0)
+                firstState = state;
+            if (checkAcceptingState(state)) {
+                this.Mark();
+                acceptState = state;
+                acceptValue = value;
+                acceptLength = length;
             }
-            catch (Exception ignored) {}
-
-            state = this.transitionTable[state][charTransition]; // transition into the next state
-            if (checkAcceptingState(state))
-                this.bufInStream.mark(Integer.MAX_VALUE);
         }
 
         this.RollBack();
-        while(state != -2 && !checkAcceptingState(state) ) {
-            state = stateStack.pop();
-            if (lexeme.length() != 0)
-                lexeme.deleteCharAt(lexeme.length() - 1);
-        }
+
+        if ((acceptState == 37 || acceptState == 38) && acceptValue < 0)
+            acceptState = -2; // a constant or register number that overflows
 
         // if an accepting state, return the token type and the lexeme
-        if (checkAcceptingState(state)) {
+        if (acceptState != -2) {
+            this.tokenType = tokenTypeInts[acceptState];
+            if (acceptState == 37 || acceptState == 38) // constant or register
+                this.tokenValue = acceptValue;
+            else if (acceptState == 18) // lshift, rshift and mult all end in state 18
+                this.tokenValue = firstState == 8 ? 6 : firstState == 13 ? 7 : 5;
+            else
+                this.tokenValue = this.stateValues[acceptState];
             if (this.printTokens)
-                System.out.println("<" + tokenTypeStrings[tokenTypeInts[state]] + ", " + lexeme.toString().trim() + ">");
-            return new Integer[]
-                    {tokenTypeInts[state],
-                            lexemeToInt(tokenTypeInts[state], lexeme.toString().trim())};
+                System.out.println("<" + tokenTypeStrings[this.tokenType] + ", "
+                        + this.lexeme.substring(0, acceptLength).trim() + ">");
+            return;
         }
 
         if (this.printTokens)
-            System.out.println("<" + tokenTypeStrings[12] + ", " + lexeme.toString().trim() + ">");
+            System.out.println("<" + tokenTypeStrings[12] + ", " + ">");
 
         /*
          * In the error case, read to the end of the ine
          */
 
         do {
-            this.bufInStream.mark(Integer.MAX_VALUE); //
-            nextChar = (char) this.NextChar();
-            lexeme.append(nextChar);
-        } while (nextChar != '\n' && nextChar != '\uFFFF');
+            this.Mark(); //
+            nextChar = this.NextChar();
+        } while (nextChar != '\n' && nextChar != -1);
 
         if (nextChar == '\n') {
-            this.bufInStream.reset(); // in the
+            this.RollBack(); // in the
         }
 
+        this.tokenType = 12; // The ERROR token is returned
+        this.tokenValue = -1;
+    }
 
-        return new Integer[]{12, -1}; // The ERROR token is returned
+    /**
+     * @return the type of the token read by the last call to advance
+     */
+    public int getTokenType() {
+        return this.tokenType;
     }
 
     /**
-     * Creates the opcode map, sending the string version of an opcode to its integer representation
-     * @return the opcode map
-     */
-    private HashMap<String, Integer> createLangMap() {
-        HashMap<String, Integer> lMap = new HashMap<>();
-        lMap.put("load", 0);
-        lMap.put("loadI", 1);
-        lMap.put("store", 2);
-        lMap.put("add", 3);
-        lMap.put("sub", 4);
-        lMap.put("mult", 5);
-        lMap.put("lshift", 6);
-        lMap.put("rshift", 7);
-        lMap.put("output", 8);
-        lMap.put("nop", 9);
-        lMap.put(",", 10);
-        lMap.put("=>", 11);
-        return lMap;
+     * @return the value of the token read by the last call to advance: the number of a constant or
+     * register, otherwise the opcode number (12 if the token has none)
+     */
+    public int getTokenValue() {
+        return this.tokenValue;
     }
 
     /**
-     * Gets the integer representation of the valid lexeme word
-     * @param lexeme the lexeme
-     * @return the integer representation
+     * Creates the table of token values for the accepting states, sending each state to the integer
+     * representation of the word it accepts. Constants, registers and state 18 (shared by lshift,
+     * rshift and mult) are worked out in advance instead.
+     * @return the value table, 12 for states without a value
      */
-    private int lexemeToInt(int tokenType, String lexeme) {
-        if (tokenType == 5) // if constant store as in
-            return Integer.parseInt(lexeme);
-        else if (tokenType == 6) // if register store as int as well
-            return Integer.parseInt(lexeme.substring(1));
-        else // get the mapped integer value from 0 to 11. 12 represents an error opcode
-            return langMap.getOrDefault(lexeme, 12);
+    private int[] createStateValueTable() {
+        int[] values = new int[44];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 12;
+        }
+        values[11] = 0; // load
+        values[12] = 1; // loadI
+        values[5] = 2;  // store
+        values[24] = 3; // add
+        values[7] = 4;  // sub
+        values[33] = 8; // output
+        values[27] = 9; // nop
+        values[36] = 10; // ,
+        values[35] = 11; // =>
+        return values;
     }
 
     /**
@@ -181,15 +281,56 @@ public class ILOCScanner {
      * @throws IOException in case the input stream fails
      */
     private int NextChar() throws IOException {
+        if (this.buffer != null)
+            return this.bufferPos < this.buffer.limit() ? this.buffer.get(this.bufferPos++) & 0xFF : -1;
         return this.bufInStream.read();
     }
 
+    /**
+     * Marks the current position in the input so that RollBack can return to it
+     */
+    private void Mark() {
+        if (this.buffer != null)
+            this.bufferMark = this.bufferPos;
+        else
+            this.bufInStream.mark(Integer.MAX_VALUE);
+    }
+
     /**
      * Goes back to the marked position in the BufferedInputStream
      * @throws IOException if there is an IO error while trying to go back in the stream
      */
     private void RollBack() throws IOException {
-        this.bufInStream.reset();
+        if (this.buffer != null)
+            this.bufferPos = this.bufferMark;
+        else
+            this.bufInStream.reset();
+    }
+
+    /**
+     * Closes the input file. The parser calls this once it reaches the end of the file, so a
+     * program scanning many files does not keep one open per scanner.
+     * @throws IOException if closing the stream fails
+     */
+    public void close() throws IOException {
+        if (this.bufInStream != null)
+            this.bufInStream.close();
+    }
+
+    /**
+     * Maps the whole file into memory. Rolling back is then just resetting an offset, so no bytes
+     * are ever copied while scanning.
+     * @param filePath the file to map
+     * @throws IOException if the file can't be opened or is too large to map as one buffer
+     */
+    private void mapFile(String filePath) throws IOException {
+        try (FileChannel channel = new RandomAccessFile(filePath, "r").getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException(filePath + " is too large to be memory mapped (over 2GB)");
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        this.bufferPos = 0;
+        this.bufferMark = 0;
     }
 
     /**
@@ -206,7 +347,7 @@ public class ILOCScanner {
      * the operations types they represent.
      * @return the token type table from state to token representation
      */
-    private Integer[] createTokenTypeTable () {
+    private int[] createTokenTypeTable () {
 
         // 0 "MEMOP",
         // 1 "LOADI",
@@ -221,7 +362,7 @@ public class ILOCScanner {
         // 10 "COMMENT"
         // 11 INVALID, "ERROR"
 
-        Integer[] tTInts = new Integer[44];
+        int[] tTInts = new int[44];
 
         for(int i = 0; i < 42; i++) {
             tTInts[i] = 12; // every state is not accepting at first
@@ -251,61 +392,62 @@ public class ILOCScanner {
      * Creates the classifier table as specified within the function.
      * Each character corresponds to an integer that they're reading will
      * associated with when trying to access the correct column in the
-     * transition table.
+     * transition table. Characters that appear nowhere in ILOC are in
+     * the 'other' class, 25.
      * @return the created Classifier Table
      */
-    private HashMap<Character, Integer> createClassifierTable () {
-        HashMap<Character, Integer> cTable = new HashMap<>();
-
-        cTable.put('s', 0);
-        cTable.put('t', 1);
-        cTable.put('o', 2);
-        cTable.put('r', 3);
-        cTable.put('e', 4);
-        cTable.put('u', 5);
-        cTable.put('b', 6);
-        cTable.put('l', 7);
-        cTable.put('a', 8);
-        cTable.put('d', 9);
-        cTable.put('h', 10);
-        cTable.put('i', 11);
-        cTable.put('f', 12);
-        cTable.put('m', 13);
-        cTable.put('n', 14);
-        cTable.put('p', 15);
-        cTable.put('I', 16);
-        cTable.put('=', 17);
-        cTable.put('>', 18);
-        cTable.put(',', 19);
-        cTable.put(' ', 20); cTable.put('\t', 20); //the tab and space characters are equivalent
-        cTable.put('/', 21);
-        cTable.put('\n', 22);
+    private int[] createClassifierTable () {
+        int[] cTable = new int[256];
+        for (int i = 0; i < cTable.length; i++) {
+            cTable[i] = 25;
+        }
+
+        cTable['s'] = 0;
+        cTable['t'] = 1;
+        cTable['o'] = 2;
+        cTable['r'] = 3;
+        cTable['e'] = 4;
+        cTable['u'] = 5;
+        cTable['b'] = 6;
+        cTable['l'] = 7;
+        cTable['a'] = 8;
+        cTable['d'] = 9;
+        cTable['h'] = 10;
+        cTable['i'] = 11;
+        cTable['f'] = 12;
+        cTable['m'] = 13;
+        cTable['n'] = 14;
+        cTable['p'] = 15;
+        cTable['I'] = 16;
+        cTable['='] = 17;
+        cTable['>'] = 18;
+        cTable[','] = 19;
+        cTable[' '] = 20; cTable['\t'] = 20; cTable['\r'] = 20; //tab, space and carriage return are equivalent
+        cTable['/'] = 21;
+        cTable['\n'] = 22;
 
         // numerical integers
-        cTable.put('0', 23);
-        cTable.put('1', 23);
-        cTable.put('2', 23);
-        cTable.put('3', 23);
-        cTable.put('4', 23);
-        cTable.put('5', 23);
-        cTable.put('6', 23);
-        cTable.put('7', 23);
-        cTable.put('8', 23);
-        cTable.put('9', 23);
-
-        //EOF
-        cTable.put('\uFFFF', 24);
+        cTable['0'] = 23;
+        cTable['1'] = 23;
+        cTable['2'] = 23;
+        cTable['3'] = 23;
+        cTable['4'] = 23;
+        cTable['5'] = 23;
+        cTable['6'] = 23;
+        cTable['7'] = 23;
+        cTable['8'] = 23;
+        cTable['9'] = 23;
 
         return cTable;
     }
 
     /**
      * Creates the transition table for an ILOC Scanner
-     * @return the two dimensional array where the row, column transition represents what
+     * @return the flattened array where the entry at state * CLASSES + class represents what
      *         next state(value) the current state(row num) transitions(column num) to
      */
-    private Integer[][] createTransitionTable() {
-        return new Integer[][]
+    private int[] createTransitionTable() {
+        int[][] table = new int[][]
                 {
                         //0   1   2   3   4   5   6   7   8   9   10  11  12  13  14  15  16  17  18  19  20  21  22  23  24 25
                         //s   t   o   r   e   u   b   l   a   d   h   i   f   m   n   p   I   =   >   ,  \t   /  \n nums EOF other
@@ -355,5 +497,10 @@ public class ILOCScanner {
                         {-1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1}  // s43
                         //s   t   o   r   e   u   b   l   a   d   h   i   f   m   n   p   I   =   >   ,  \t   /  \n nums other
                 };
+        int[] flat = new int[table.length * CLASSES];
+        for (int state = 0; state < table.length; state++) {
+            System.arraycopy(table[state], 0, flat, state * CLASSES, CLASSES);
+        }
+        return flat;
     }
 }
@@ -0,0 +1,257 @@
+import java.util.Arrays;
+
+/**
+ * Runs a block, to check that an allocated block outputs what its source does and to count the
+ * cycles each takes.
+ *
+ * The block is run straight from the IR, reading the registers from whichever field is asked for:
+ * the SRs of a parsed block or the PRs of an allocated one. Registers and memory are int arrays,
+ * and both start at 0, so a register or word read before it is written reads 0. A register read
+ * that way is noted (see getUndefinedRegister): a source block that does it has no defined
+ * outputs, since its allocated code reads whatever the PR held. Memory is addressed by byte like
+ * ILOC's, one array element per address, and grows to the largest address stored to.
+ *
+ * The cycles are counted on the machine ListScheduler schedules for: one operation issues per
+ * cycle, in order, and an operation waits until the registers it reads, and the memory word a
+ * load or output reads, have been written. The latency of each opcode can be set.
+ */
+public class ILOCSimulator {
+
+    /**
+     * One more than the largest address a block may use
+     */
+    private static final int MAX_ADDRESS = 1 << 24;
+
+    private final int[] latencies;
+
+    private int[] registers = new int[0];
+    private int[] registerReady = new int[0];
+    private int[] memory = new int[1 << 16];
+    private int[] memoryReady = new int[1 << 16];
+
+    /**
+     * The largest address stored to since the last Run started, so only that much is cleared
+     */
+    private int maxAddress = -1;
+
+    /**
+     * The first register the last Run read before writing it, -1 if there was none
+     */
+    private int undefinedRegister;
+
+    private int[] outputs = new int[16];
+    private int outputCount;
+    private long cycles;
+    private long operationCount;
+
+    /**
+     * Uses the latencies ListScheduler plans for
+     */
+    public ILOCSimulator() {
+        this(ListScheduler.LATENCY);
+    }
+
+    /**
+     * @param latencies the cycles each opcode takes, by opcode
+     */
+    public ILOCSimulator(int[] latencies) {
+        if (latencies.length != ListScheduler.LATENCY.length)
+            throw new IllegalArgumentException("a latency is needed for each of the "
+                    + ListScheduler.LATENCY.length + " opcodes");
+        this.latencies = latencies.clone();
+    }
+
+    /**
+     * Runs a block from a clear register file and memory
+     * @param block the block
+     * @param registerField 1 to read the SRs, 2 the VRs or 3 the PRs
+     * @throws IllegalStateException if the block uses an address below 0 or too large to simulate
+     */
+    public void Run(IntRepList block, int registerField) {
+        int numRegs = maxRegister(block, registerField) + 1;
+        if (this.registers.length < numRegs) {
+            this.registers = new int[numRegs];
+            this.registerReady = new int[numRegs];
+        } else {
+            Arrays.fill(this.registers, 0, numRegs, 0);
+        }
+        Arrays.fill(this.registerReady, 0, numRegs, -1); // -1 until the register is written
+        if (this.maxAddress >= 0) {
+            Arrays.fill(this.memory, 0, this.maxAddress + 1, 0);
+            Arrays.fill(this.memoryReady, 0, this.maxAddress + 1, 0);
+        }
+        this.maxAddress = -1;
+        this.outputCount = 0;
+        this.undefinedRegister = -1;
+
+        int[] latencies = this.latencies;
+        int[] regs = this.registers;
+        int[] ready = this.registerReady;
+        int first = registerField;     // the register of the first argument
+        int second = registerField + 4;
+        int third = registerField + 8;
+        long cycle = 0;
+        long done = 0;
+        for (int op = 0; op < block.size(); op++) {
+            int opCode = block.getOpCode(op);
+            long issue = cycle;
+            switch (opCode) {
+                case 0: { // load
+                    int pointer = block.get(op, first);
+                    if (ready[pointer] < 0)
+                        this.readUndefined(pointer);
+                    int address = regs[pointer];
+                    issue = Math.max(issue, Math.max(ready[pointer], this.readyAt(address)));
+                    int result = block.get(op, third);
+                    regs[result] = address <= this.maxAddress ? this.memory[checkAddress(address)] : 0;
+                    ready[result] = (int) (issue + latencies[0]);
+                    break;
+                }
+                case 1: { // loadI
+                    int result = block.get(op, third);
+                    regs[result] = block.get(op, 1);
+                    ready[result] = (int) (issue + latencies[1]);
+                    break;
+                }
+                case 2: { // store
+                    int value = block.get(op, first);
+                    int pointer = block.get(op, third);
+                    if ((ready[value] | ready[pointer]) < 0)
+                        this.readUndefined(ready[value] < 0 ? value : pointer);
+                    issue = Math.max(issue, Math.max(ready[value], ready[pointer]));
+                    int address = this.grow(regs[pointer]);
+                    this.memory[address] = regs[value];
+                    this.memoryReady[address] = (int) (issue + latencies[2]);
+                    break;
+                }
+                case 3: case 4: case 5: case 6: case 7: { // arithop
+                    int left = block.get(op, first);
+                    int right = block.get(op, second);
+                    if ((ready[left] | ready[right]) < 0)
+                        this.readUndefined(ready[left] < 0 ? left : right);
+                    issue = Math.max(issue, Math.max(ready[left], ready[right]));
+                    int a = regs[left];
+                    int b = regs[right];
+                    int result = block.get(op, third);
+                    switch (opCode) {
+                        case 3: regs[result] = a + b; break;
+                        case 4: regs[result] = a - b; break;
+                        case 5: regs[result] = a * b; break;
+                        case 6: regs[result] = a << b; break;
+                        default: regs[result] = a >> b; break;
+                    }
+                    ready[result] = (int) (issue + latencies[opCode]);
+                    break;
+                }
+                case 8: { // output
+                    int address = block.get(op, 1);
+                    issue = Math.max(issue, this.readyAt(address));
+                    if (this.outputCount == this.outputs.length)
+                        this.outputs = Arrays.copyOf(this.outputs, this.outputCount * 2);
+                    this.outputs[this.outputCount++] = address <= this.maxAddress ? this.memory[checkAddress(address)] : 0;
+                    break;
+                }
+                default: // nop
+                    break;
+            }
+            done = Math.max(done, issue + latencies[opCode]);
+            cycle = issue + 1;
+        }
+        this.cycles = done;
+        this.operationCount = block.size();
+    }
+
+    /**
+     * Notes a register read before it was written, if it is the first
+     */
+    private void readUndefined(int register) {
+        if (this.undefinedRegister == -1)
+            this.undefinedRegister = register;
+    }
+
+    /**
+     * @return the cycle the word at address is written by, 0 if it never is
+     */
+    private int readyAt(int address) {
+        return address >= 0 && address <= this.maxAddress ? this.memoryReady[address] : 0;
+    }
+
+    /**
+     * Makes sure memory holds address, growing it if needed
+     * @return the address
+     */
+    private int grow(int address) {
+        checkAddress(address);
+        if (address >= this.memory.length) {
+            int length = (int) Math.min(MAX_ADDRESS, Math.max(address + 1L, this.memory.length * 2L));
+            this.memory = Arrays.copyOf(this.memory, length);
+            this.memoryReady = Arrays.copyOf(this.memoryReady, length);
+        }
+        this.maxAddress = Math.max(this.maxAddress, address);
+        return address;
+    }
+
+    private static int checkAddress(int address) {
+        if (address < 0 || address >= MAX_ADDRESS)
+            throw new IllegalStateException("address " + address + " is outside the memory simulated, 0 to "
+                    + (MAX_ADDRESS - 1));
+        return address;
+    }
+
+    /**
+     * @return the largest register number in the given field of the block's operations
+     */
+    private static int maxRegister(IntRepList block, int registerField) {
+        int max = 0;
+        for (int op = 0; op < block.size(); op++) {
+            int opCode = block.getOpCode(op);
+            // the first field of a loadI or output is a constant, unused fields are ABSENT
+            for (int opBaseInd = opCode == 1 || opCode == 8 ? 5 : 1; opBaseInd < IntRepList.FIELDS; opBaseInd += 4)
+                max = Math.max(max, block.get(op, opBaseInd + registerField - 1));
+        }
+        return max;
+    }
+
+    /**
+     * @param other a simulator that ran another block
+     * @return the index of the first output the two runs differ in (the length of the shorter one
+     * if one is the start of the other), -1 if they are the same
+     */
+    public int firstDifference(ILOCSimulator other) {
+        int shorter = Math.min(this.outputCount, other.outputCount);
+        for (int i = 0; i < shorter; i++) {
+            if (this.outputs[i] != other.outputs[i])
+                return i;
+        }
+        return this.outputCount == other.outputCount ? -1 : shorter;
+    }
+
+    /**
+     * @return the values output by the last Run, in order
+     */
+    public int[] getOutputs() {
+        return Arrays.copyOf(this.outputs, this.outputCount);
+    }
+
+    /**
+     * @return the first register the last Run read before writing it, -1 if it read none
+     */
+    public int getUndefinedRegister() {
+        return this.undefinedRegister;
+    }
+
+    public int getOutputCount() {
+        return this.outputCount;
+    }
+
+    /**
+     * @return the cycles the last Run took, until its last operation finished
+     */
+    public long getCycles() {
+        return this.cycles;
+    }
+
+    public long getOperationCount() {
+        return this.operationCount;
+    }
+}
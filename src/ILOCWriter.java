@@ -0,0 +1,199 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes operations as ILOC text. Instructions are formatted byte by byte into one reusable
+ * buffer (opcode text is kept as bytes and numbers are converted to ASCII digits directly), and
+ * the buffer goes to the underlying stream only when it is full or on flush, so printing a block
+ * makes no strings and only a handful of writes.
+ */
+public class ILOCWriter {
+
+    /**
+     * The size of the output buffer in bytes
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * More than the longest operation takes: an opcode and three ten digit numbers with signs
+     */
+    private static final int MAX_OPERATION_BYTES = 64;
+
+    //                                               0        1         2         3       4       5
+    private static final byte[][] opCodeBytes = bytes("load ", "loadI ", "store ", "add ", "sub ", "mult ",
+            "lshift ", "rshift ", "output ", "nop");
+    //         6          7          8           9
+
+    private static final byte[] INTO = bytes(" => ")[0];
+    private static final byte[] COMMA = bytes(", ")[0];
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int position;
+
+    /**
+     * @param out the stream to write to. It is not written until the buffer fills or on flush.
+     */
+    public ILOCWriter(OutputStream out) {
+        this.out = out;
+        this.buffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Creates a writer to a file, replacing its contents
+     * @param filePath the path of the file
+     * @return the writer
+     * @throws IOException if the file can't be opened
+     */
+    public static ILOCWriter open(String filePath) throws IOException {
+        return new ILOCWriter(new FileOutputStream(filePath));
+    }
+
+    /**
+     * Writes one operation followed by a newline
+     * @param ir the list holding the operation
+     * @param op the operation index
+     * @param registerField which field of each argument holds the register to print: 2 for the VR,
+     *                      3 for the PR
+     * @throws IOException if the underlying stream fails
+     */
+    public void writeOperation(IntRepList ir, int op, int registerField) throws IOException {
+        if (this.position > this.buffer.length - MAX_OPERATION_BYTES)
+            this.drain();
+        int opCode = ir.getOpCode(op);
+        this.put(opCodeBytes[opCode]);
+        if (opCode >= 3 && opCode <= 7) { // arithop
+            this.putRegister(ir.get(op, registerField));
+            this.put(COMMA);
+            this.putRegister(ir.get(op, registerField + 4));
+            this.put(INTO);
+            this.putRegister(ir.get(op, registerField + 8));
+        } else if (opCode == 2 || opCode == 0) { // load or store
+            this.putRegister(ir.get(op, registerField));
+            this.put(INTO);
+            this.putRegister(ir.get(op, registerField + 8));
+        } else if (opCode == 1) { // loadI -- writes a constant
+            this.putInt(ir.get(op, 1));
+            this.put(INTO);
+            this.putRegister(ir.get(op, registerField + 8));
+        } else if (opCode == 8) { // output
+            this.putInt(ir.get(op, 1));
+        }
+        this.buffer[this.position++] = '\n';
+    }
+
+    /**
+     * Writes a line of text as is
+     * @param line the line, without the newline
+     * @throws IOException if the underlying stream fails
+     */
+    public void writeLine(String line) throws IOException {
+        if (this.position > this.buffer.length - line.length() - 1)
+            this.drain();
+        if (line.length() + 1 > this.buffer.length) {
+            this.out.write((line + "\n").getBytes("US-ASCII"));
+            return;
+        }
+        for (int i = 0; i < line.length(); i++)
+            this.buffer[this.position++] = (byte) line.charAt(i);
+        this.buffer[this.position++] = '\n';
+    }
+
+    /**
+     * Writes bytes as they are, such as the text of a block allocated earlier
+     * @param bytes the text
+     * @param offset where the text starts in bytes
+     * @param length the number of bytes
+     * @throws IOException if the underlying stream fails
+     */
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (length > this.buffer.length - this.position) {
+            this.drain();
+            if (length > this.buffer.length) {
+                this.out.write(bytes, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, this.buffer, this.position, length);
+        this.position += length;
+    }
+
+    /**
+     * Writes everything buffered to the underlying stream and flushes it
+     * @throws IOException if the underlying stream fails
+     */
+    public void flush() throws IOException {
+        this.drain();
+        this.out.flush();
+    }
+
+    /**
+     * Flushes and closes the underlying stream
+     * @throws IOException if the underlying stream fails
+     */
+    public void close() throws IOException {
+        this.flush();
+        this.out.close();
+    }
+
+    /**
+     * Writes the buffer to the underlying stream and empties it
+     */
+    private void drain() throws IOException {
+        if (this.position > 0)
+            this.out.write(this.buffer, 0, this.position);
+        this.position = 0;
+    }
+
+    private void put(byte[] bytes) {
+        System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+        this.position += bytes.length;
+    }
+
+    private void putRegister(int register) {
+        this.buffer[this.position++] = 'r';
+        this.putInt(register);
+    }
+
+    private void putInt(int value) {
+        this.position = putInt(this.buffer, this.position, value);
+    }
+
+    /**
+     * Writes the decimal digits of value straight into a byte array, which needs room for 11 bytes
+     * @param bytes the array
+     * @param position where the digits start
+     * @param value the number
+     * @return the position after the last digit
+     */
+    static int putInt(byte[] bytes, int position, int value) {
+        long v = value; // so that the smallest int can be negated
+        if (v < 0) {
+            bytes[position++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (long rest = v / 10; rest != 0; rest /= 10)
+            digits++;
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            bytes[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        return end;
+    }
+
+    /**
+     * @return the ASCII bytes of each string
+     */
+    static byte[][] bytes(String... strings) {
+        byte[][] bytes = new byte[strings.length][];
+        for (int i = 0; i < strings.length; i++) {
+            bytes[i] = new byte[strings[i].length()];
+            for (int c = 0; c < strings[i].length(); c++)
+                bytes[i][c] = (byte) strings[i].charAt(c);
+        }
+        return bytes;
+    }
+}
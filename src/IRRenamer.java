@@ -1,5 +1,5 @@
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * This class renames a given intermediate representation
@@ -9,7 +9,7 @@ public class IRRenamer {
     /**
      * The intermediate representation to rename
      */
-    private LinkedList<Integer[]> iRep;
+    private IntRepList iRep;
 
     /**
      * The maximum register number int he IRep
@@ -30,7 +30,7 @@ public class IRRenamer {
      * Creates the IRRenamer
      * @param iRep the given intermediate representation
      */
-    public IRRenamer(LinkedList<Integer[]> iRep, int maxRegNumber) {
+    public IRRenamer(IntRepList iRep, int maxRegNumber) {
         this.iRep = iRep;
         this.maxRegNumber = maxRegNumber;
     }
@@ -42,18 +42,17 @@ public class IRRenamer {
 
         int VRName = 0;
 
-        Integer[] SRToVR = new Integer[this.maxRegNumber + 1];
-        Integer[] LU = new Integer[this.maxRegNumber + 1];
+        int[] SRToVR = new int[this.maxRegNumber + 1];
+        int[] LU = new int[this.maxRegNumber + 1];
         for (int i = 0; i < this.maxRegNumber + 1; i ++) {
             SRToVR[i] = -1;
             LU[i] = Integer.MAX_VALUE;
         }
 
-        Iterator<Integer[]> IRReverseIterator = this.iRep.descendingIterator();
-        int index = this.iRep.size();
-        while (IRReverseIterator.hasNext()) {
-            Integer[] nextOP = IRReverseIterator.next();
-
+        IntRepList ir = this.iRep;
+        for (int op = ir.size() - 1; op >= 0; op--) {
+            int index = op + 1;
+            int opCode = ir.getOpCode(op);
 
             /*
              * Opcode Array representation:
@@ -66,52 +65,79 @@ public class IRRenamer {
 
             // for every operand DEFINED in nextOP
             // only do this if the OP is not output, nop, or store
-            if (nextOP[0] != 2 && nextOP[0] < 8) {
+            if (opCode != 2 && opCode < 8) {
                 int oBaseInd = 9; // operand base index for any definition is 9
-                int SR = nextOP[oBaseInd]; // SR num for readability
+                int SR = ir.get(op, oBaseInd); // SR num for readability
                 if (SRToVR[SR] == -1) { // the definition could only be nextOP[9]
                     SRToVR[SR] = VRName ++;
                 }
-                nextOP[oBaseInd + 1] = SRToVR[SR]; // set Virtual register in representation
-                nextOP[oBaseInd + 3] = LU[SR]; // set Next use in representation to Last use
+                ir.set(op, oBaseInd + 1, SRToVR[SR]); // set Virtual register in representation
+                ir.set(op, oBaseInd + 3, LU[SR]); // set Next use in representation to Last use
                 SRToVR[SR] = -1; // set to invalid
                 LU[SR] = Integer.MAX_VALUE;
             }
 
-            int lastOPUseInd = nextOP[0] == 2 ? 10 : 6; // if it is a store, the last use register is
+            int lastOPUseInd = opCode == 2 ? 10 : 6; // if it is a store, the last use register is
             for (int opBaseInd = 1; opBaseInd < lastOPUseInd; opBaseInd += 4) { // for each operand USED in nextOP
-                if (nextOP[opBaseInd] != null && nextOP[0] != 1 && nextOP[0] < 8) { // only use registers
+                if (ir.get(op, opBaseInd) != IntRepList.ABSENT && opCode != 1 && opCode < 8) { // only use registers
 
-                    int opSR = nextOP[opBaseInd]; // the source register of the current operand
+                    int opSR = ir.get(op, opBaseInd); // the source register of the current operand
 
                     if (SRToVR[opSR] == -1) {
                         SRToVR[opSR] = VRName ++;
                     }
-                    nextOP[opBaseInd + 1] = SRToVR[opSR]; // set the virtual register of the operand
-                    nextOP[opBaseInd + 3] = LU[opSR]; // set the next use of the register in the operand
+                    ir.set(op, opBaseInd + 1, SRToVR[opSR]); // set the virtual register of the operand
+                    ir.set(op, opBaseInd + 3, LU[opSR]); // set the next use of the register in the operand
                     LU[opSR] = index; // set the last use of this source register to the index of the op
                 }
             }
             // for every operand used in nextOP
-
-
-            index --;
         }
         maxVRegNum = VRName;
     }
 
 
+    /**
+     * Sets the next use fields of a renamed block from its VRs, the way Rename sets them from the
+     * SRs, for a pass that removed or moved operations after renaming
+     * @param iRep the renamed block
+     * @param numVRs more than the largest VR number in the block
+     */
+    public static void SetNextUses(IntRepList iRep, int numVRs) {
+        IntRepList ir = iRep;
+        int[] LU = new int[numVRs];
+        Arrays.fill(LU, Integer.MAX_VALUE);
+        for (int op = ir.size() - 1; op >= 0; op--) {
+            int opCode = ir.getOpCode(op);
+            if (opCode != 2 && opCode < 8) {
+                int VR = ir.get(op, 10);
+                ir.set(op, 12, LU[VR]);
+                LU[VR] = Integer.MAX_VALUE;
+            }
+            if (opCode != 1 && opCode < 8) {
+                int lastOPUseInd = opCode == 2 ? 10 : 6;
+                for (int opBaseInd = 1; opBaseInd < lastOPUseInd; opBaseInd += 4) {
+                    if (ir.get(op, opBaseInd) == IntRepList.ABSENT)
+                        continue;
+                    int VR = ir.get(op, opBaseInd + 1);
+                    ir.set(op, opBaseInd + 3, LU[VR]);
+                    LU[VR] = op + 1;
+                }
+            }
+        }
+    }
+
     /**
      * Prints out the representation of an op line
-     * @param op the operation array
+     * @param op the operation index
      */
-    private void ShowRep(Integer[] op) {
-        System.out.print(" " + this.opCodeStrings[op[0]]);
+    private void ShowRep(int op) {
+        System.out.print(" " + this.opCodeStrings[this.iRep.getOpCode(op)]);
         for (int i = 1; i < 13; i++) {
             if ((i - 1) % 4 == 0)
                 System.out.print(" | ");
-            if (op[i] != null)
-                System.out.print(" " + op[i]);
+            if (this.iRep.get(op, i) != IntRepList.ABSENT)
+                System.out.print(" " + this.iRep.get(op, i));
             else
                 System.out.print(" - ");
         }
@@ -122,36 +148,27 @@ public class IRRenamer {
      * Shows the entire representation of
      */
     public void ShowAllRep() {
-        for (Integer[] operation: this.iRep) {
-            this.ShowRep(operation);
+        for (int op = 0; op < this.iRep.size(); op++) {
+            this.ShowRep(op);
         }
     }
 
     /**
-     * This prints the renamed ILOC block to stdout
+     * Writes the renamed ILOC block, with VRs in place of the source registers
+     * @param writer the writer to write to
+     * @throws IOException if the writer fails
      */
-    public void PrintRenamedBlock() {
-        for (Integer[] operation: this.iRep) {
-            this.PrintRenamedOperation(operation);
+    public void PrintRenamedBlock(ILOCWriter writer) throws IOException {
+        for (int op = 0; op < this.iRep.size(); op++) {
+            writer.writeOperation(this.iRep, op, 2);
         }
     }
 
     /**
-     * Prints the operation after it has been renamed
-     * @param op the operation array
+     * @return the largest source register number the renamer was made for
      */
-    private void PrintRenamedOperation(Integer[] op) {
-        if (op[0] >= 3 && op[0] <= 7) // arithop
-            System.out.println("" + opCodeStrings[op[0]] + " r" + op[2] + "," + " r" + op[6] + " =>" + " r" + op[10]);
-        else if (op[0] == 2 || op[0] == 0) { // load or store
-            System.out.println(opCodeStrings[op[0]] + " r" + op[2] + " =>" + " r" + op[10]);
-        } else if (op[0] == 1) { // loadI -- prints a constant
-            System.out.println(opCodeStrings[op[0]] + " " + op[1] + " =>" + " r" + op[10]);
-        } else if (op[0] == 8) { // output
-            System.out.println(opCodeStrings[op[0]] + " " + op[1]);
-        } else if (op[0] == 9) { // nop
-            System.out.println(opCodeStrings[op[0]]);
-        }
+    public int getMaxRegNumber() {
+        return this.maxRegNumber;
     }
 
     public int getMaxVRegNum() {
@@ -0,0 +1,273 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a block allocated across edits, redoing only the part of the block an edit touches.
+ *
+ * The block is kept as windows cut where no value is live (see WindowSplitter), each with its
+ * source operations and its allocated code. Nothing is live across a cut, so each window is
+ * renamed and allocated on its own, as StreamingAllocator does. An edit replaces a range of
+ * operations; the windows the range falls in are put together with the edit and split, renamed
+ * and allocated again, and every other window is kept as it was.
+ *
+ * The cut after the edited windows stays a cut, since nothing after it changed and nothing was
+ * live across it. The cut in front of them can stop being one, when the edit adds a use of a
+ * register defined further up; the windows in front are then taken in too, one at a time, until
+ * every register the edited part uses is defined in it (or the start of the block is reached).
+ */
+public class IncrementalAllocator {
+
+    private final int numPhysRegs;
+    private final int windowSize;
+
+    /**
+     * The windows of the block, in order
+     */
+    private final List<Window> windows = new ArrayList<>();
+
+    /**
+     * The number of operations in the block
+     */
+    private int size;
+
+    /**
+     * The number of operations allocated again by the last edit
+     */
+    private int reallocatedCount;
+
+    /**
+     * @param numPhysRegs the number of physical registers available, at least 3
+     * @param windowSize the smallest number of operations in a window. Smaller windows make
+     *                   edits cheaper but cut the block in more places.
+     */
+    public IncrementalAllocator(int numPhysRegs, int windowSize) {
+        if (numPhysRegs < 3)
+            throw new IllegalArgumentException("the allocator needs at least 3 registers");
+        this.numPhysRegs = numPhysRegs;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Allocates a whole block, replacing whatever was loaded before
+     * @param block the parsed block, as ILOCParser gives it. It is not changed.
+     */
+    public void load(IntRepList block) {
+        this.windows.clear();
+        this.size = 0;
+        this.replace(0, 0, block);
+    }
+
+    /**
+     * Replaces operations of the block and allocates again what that affects. Inserting is
+     * replacing none, removing is replacing with an empty list.
+     * @param start the index of the first operation to replace
+     * @param count the number of operations to replace
+     * @param inserted the parsed operations to put in their place. It is not changed.
+     */
+    public void replace(int start, int count, IntRepList inserted) {
+        if (start < 0 || count < 0 || start + count > this.size)
+            throw new IllegalArgumentException("operations " + start + " to " + (start + count)
+                    + " are not in the block of " + this.size);
+
+        // the windows the edit falls in, first .. last, and where first starts
+        int first = 0;
+        int firstStart = 0;
+        while (first < this.windows.size() - 1 && firstStart + this.windows.get(first).size() <= start)
+            firstStart += this.windows.get(first++).size();
+        int last = first;
+        int lastEnd = firstStart + (this.windows.isEmpty() ? 0 : this.windows.get(first).size());
+        while (last < this.windows.size() - 1 && lastEnd < start + count)
+            lastEnd += this.windows.get(++last).size();
+
+        // the operations of those windows with the edit made
+        IntRepList region = new IntRepList(lastEnd - firstStart - count + inserted.size());
+        int index = firstStart; // the index in the block of the operation being copied
+        for (int w = first; w <= last && w < this.windows.size(); w++) {
+            IntRepList source = this.windows.get(w).source;
+            for (int op = 0; op < source.size(); op++, index++) {
+                if (index == start)
+                    region.appendAll(inserted);
+                if (index < start || index >= start + count)
+                    region.append(source, op);
+            }
+        }
+        if (index == start) // inserted after the last window
+            region.appendAll(inserted);
+
+        // take in the windows in front while the region uses a register defined in them
+        while (first > 0 && usesBeforeDefinition(region)) {
+            first--;
+            IntRepList source = this.windows.get(first).source;
+            IntRepList grown = new IntRepList(source.size() + region.size());
+            grown.appendAll(source);
+            grown.appendAll(region);
+            region = grown;
+        }
+
+        if (!this.windows.isEmpty())
+            this.windows.subList(first, last + 1).clear();
+        this.windows.addAll(first, this.allocate(region));
+        this.size += inserted.size() - count;
+        this.reallocatedCount = region.size();
+    }
+
+    /**
+     * @return whether some register is used in the operations before any of them defines it
+     */
+    private static boolean usesBeforeDefinition(IntRepList ops) {
+        int[] defined = new int[maxSRNum(ops) + 1]; // defined[sr] == 1 once an operation defines sr
+        for (int op = 0; op < ops.size(); op++) {
+            int opCode = ops.getOpCode(op);
+            if (opCode != 1 && opCode < 8) { // only these use registers
+                int lastOPUseInd = opCode == 2 ? 10 : 6; // the store also uses its third register
+                for (int opBaseInd = 1; opBaseInd < lastOPUseInd; opBaseInd += 4) {
+                    int SR = ops.get(op, opBaseInd);
+                    if (SR != IntRepList.ABSENT && defined[SR] == 0)
+                        return true;
+                }
+            }
+            if (opCode != 2 && opCode < 8) // defines the register at index 9
+                defined[ops.get(op, 9)] = 1;
+        }
+        return false;
+    }
+
+    /**
+     * @return the largest source register number in the operations
+     */
+    private static int maxSRNum(IntRepList ops) {
+        int max = 0;
+        for (int op = 0; op < ops.size(); op++) {
+            int opCode = ops.getOpCode(op);
+            // the first field of a loadI or output is a constant, unused fields are ABSENT
+            for (int opBaseInd = opCode == 1 || opCode == 8 ? 5 : 1; opBaseInd < IntRepList.FIELDS; opBaseInd += 4)
+                max = Math.max(max, ops.get(op, opBaseInd));
+        }
+        return max;
+    }
+
+    /**
+     * Splits operations into windows and allocates each
+     * @param ops the operations, copied into the windows
+     * @return the windows
+     */
+    private List<Window> allocate(IntRepList ops) {
+        WindowSplitter splitter = new WindowSplitter(this.windowSize);
+        for (int op = 0; op < ops.size(); op++)
+            splitter.add(ops, op);
+        int[] cuts = splitter.getCuts();
+
+        List<Window> windows = new ArrayList<>(cuts.length + 1);
+        int end = 0;
+        for (int cut = 0; cut <= cuts.length; cut++) {
+            int start = end;
+            end = cut < cuts.length ? cuts[cut] : ops.size();
+            IntRepList source = new IntRepList(end - start);
+            for (int op = start; op < end; op++)
+                source.append(ops, op);
+
+            IRRenamer renamer = new IRRenamer(source, maxSRNum(source));
+            renamer.Rename();
+            RAllocator allocator = new RAllocator(source, this.numPhysRegs, renamer.getMaxVRegNum());
+            allocator.Allocate();
+            windows.add(new Window(source, allocator));
+        }
+        return windows;
+    }
+
+    /**
+     * @return the number of operations in the block
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the number of operations the last load or replace allocated
+     */
+    public int getReallocatedCount() {
+        return this.reallocatedCount;
+    }
+
+    /**
+     * @return the allocated block with the spill code merged in
+     */
+    public IntRepList getAllocatedBlock() {
+        int total = 0;
+        for (Window window : this.windows)
+            total += window.allocated.size();
+        IntRepList block = new IntRepList(total);
+        for (Window window : this.windows)
+            block.appendAll(window.allocated);
+        return block;
+    }
+
+    /**
+     * Writes the allocated block
+     * @param writer the writer to write to
+     * @throws IOException if the writer fails
+     */
+    public void PrintRenamedBlock(ILOCWriter writer) throws IOException {
+        for (Window window : this.windows) {
+            for (int op = 0; op < window.allocated.size(); op++)
+                writer.writeOperation(window.allocated, op, 3);
+        }
+    }
+
+    public int getStoreCount() {
+        int count = 0;
+        for (Window window : this.windows)
+            count += window.storeCount;
+        return count;
+    }
+
+    public int getRestoreCount() {
+        int count = 0;
+        for (Window window : this.windows)
+            count += window.restoreCount;
+        return count;
+    }
+
+    public int getRematCount() {
+        int count = 0;
+        for (Window window : this.windows)
+            count += window.rematCount;
+        return count;
+    }
+
+    /**
+     * @return the largest spill area of the windows, which all start theirs at SPILL_BASE
+     */
+    public int getPeakSpillBytes() {
+        int peak = 0;
+        for (Window window : this.windows)
+            peak = Math.max(peak, window.peakSpillBytes);
+        return peak;
+    }
+
+    /**
+     * A window of the block: its operations and the code allocated for them
+     */
+    private static class Window {
+        final IntRepList source;
+        final IntRepList allocated;
+        final int storeCount;
+        final int restoreCount;
+        final int rematCount;
+        final int peakSpillBytes;
+
+        Window(IntRepList source, RAllocator allocator) {
+            this.source = source;
+            this.allocated = allocator.getAllocatedBlock();
+            this.storeCount = allocator.getStoreCount();
+            this.restoreCount = allocator.getRestoreCount();
+            this.rematCount = allocator.getRematCount();
+            this.peakSpillBytes = allocator.getPeakSpillBytes();
+        }
+
+        int size() {
+            return this.source.size();
+        }
+    }
+}
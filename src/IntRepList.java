@@ -1,55 +1,198 @@
-import java.util.LinkedList;
-
 /**
  * The class to store the intermediate representation
+ *
+ * Operations are packed into parallel int columns rather than one Integer[13] per operation,
+ * so a block costs 13 ints per operation and no object headers or pointers. The column numbers
+ * are the same indexes the operation arrays used:
+ *
+ * OPCODE       Argument 1          Argument 2          Argument 3
+ *             SR VR PR NU         SR VR PR NU         SR VR PR NU
+ *   0         1  2  3  4          5  6  7  8          9  10 11 12
+ *
+ * A field that does not apply to an operation holds ABSENT.
  */
 public class IntRepList {
 
-    public static class OpNode {
+    /**
+     * The sentinel stored in a field that is not used by its operation (what used to be null)
+     */
+    public static final int ABSENT = Integer.MIN_VALUE;
+
+    /**
+     * The number of fields (columns) per operation
+     */
+    public static final int FIELDS = 13;
+
+    /**
+     * columns[field][op] holds the given field of the given operation
+     */
+    private final int[][] columns;
+
+    /**
+     * The number of operations in the list
+     */
+    private int size;
+
+    /**
+     * The number of operations the columns can hold before growing
+     */
+    private int capacity;
+
+    public IntRepList () {
+        this(1024);
+    }
+
+    /**
+     * @param capacity the number of operations to size the columns for
+     */
+    public IntRepList (int capacity) {
+        this.capacity = Math.max(capacity, 16);
+        this.columns = new int[FIELDS][this.capacity];
+        this.size = 0;
+    }
+
+    /**
+     * @return the number of operations in the list
+     */
+    public int size() {
+        return this.size;
+    }
 
-        Integer[] opArray;
+    /**
+     * @param op the operation index
+     * @param field the field index (see the layout above)
+     * @return the value of the field
+     */
+    public int get(int op, int field) {
+        return this.columns[field][op];
+    }
 
-        OpNode next = null;
-        OpNode prev = null;
+    /**
+     * @param op the operation index
+     * @param field the field index (see the layout above)
+     * @param value the value to store
+     */
+    public void set(int op, int field, int value) {
+        this.columns[field][op] = value;
+    }
 
-        public OpNode (Integer[] opArray) {
-            this.opArray = opArray;
+    /**
+     * @param op the operation index
+     * @return the opcode of the operation
+     */
+    public int getOpCode(int op) {
+        return this.columns[0][op];
+    }
+
+    /**
+     * Starts a new operation at the end of the list with every field ABSENT. The operation is
+     * not part of the list until commitOp is called, so a caller can abandon it (for example on
+     * a syntax error) and the next beginOp will overwrite it.
+     * @param opCode the opcode of the new operation
+     * @return the index of the new operation
+     */
+    public int beginOp(int opCode) {
+        if (this.size == this.capacity)
+            this.grow(this.capacity * 2);
+        for (int field = 1; field < FIELDS; field++) {
+            this.columns[field][this.size] = ABSENT;
         }
+        this.columns[0][this.size] = opCode;
+        return this.size;
+    }
+
+    /**
+     * Adds the operation started by beginOp to the list
+     */
+    public void commitOp() {
+        this.size++;
+    }
 
-        public void setNext(OpNode next) {
-            this.next = next;
+    /**
+     * Adds a new operation with every field but the opcode ABSENT
+     * @param opCode the opcode of the new operation
+     * @return the index of the new operation
+     */
+    public int add(int opCode) {
+        int op = this.beginOp(opCode);
+        this.commitOp();
+        return op;
+    }
+
+    /**
+     * Copies an operation of another list onto the end of this one
+     * @param from the list to copy from
+     * @param op the index of the operation in from
+     * @return the index of the copy
+     */
+    public int append(IntRepList from, int op) {
+        int copy = this.add(from.columns[0][op]);
+        for (int field = 1; field < FIELDS; field++) {
+            this.columns[field][copy] = from.columns[field][op];
         }
+        return copy;
+    }
 
-        public void setPrev(OpNode prev) {
-            this.prev = prev;
+    /**
+     * Copies every operation of another list onto the end of this one, a column at a time
+     * @param from the list to copy from
+     */
+    public void appendAll(IntRepList from) {
+        this.ensureCapacity(this.size + from.size);
+        for (int field = 0; field < FIELDS; field++) {
+            System.arraycopy(from.columns[field], 0, this.columns[field], this.size, from.size);
         }
+        this.size += from.size;
+    }
 
+    /**
+     * Copies an operation over another one of this list
+     * @param from the index of the operation to copy
+     * @param to the index of the operation to overwrite
+     */
+    public void move(int from, int to) {
+        for (int field = 0; field < FIELDS; field++) {
+            this.columns[field][to] = this.columns[field][from];
+        }
     }
 
-    public OpNode head;
-    public OpNode tail;
-    public int size;
+    /**
+     * Drops the operations from the given index on
+     * @param newSize the number of operations to keep
+     */
+    public void truncate(int newSize) {
+        if (newSize < 0 || newSize > this.size)
+            throw new IllegalArgumentException("can't truncate " + this.size + " operations to " + newSize);
+        this.size = newSize;
+    }
 
-    public IntRepList () {
+    /**
+     * Empties the list, keeping its columns for reuse
+     */
+    public void clear() {
         this.size = 0;
-        this.head = null;
-        this.tail = null;
-    }
-
-    public void transferLinkedList(LinkedList<Integer[]> toTransfer) {
-        head = new OpNode(toTransfer.getFirst());
-        tail = head;
-        int i = 0;
-        for (Integer[] opArray: toTransfer) {
-            if (i == 0) {
-                i++;
-                continue;
-            }
-            OpNode next = new OpNode(opArray);
-            this.tail.next = next;
-            next.prev = tail;
-            this.tail = next;
+    }
+
+    /**
+     * Makes sure the columns can hold the given number of operations without growing
+     * @param minCapacity the number of operations
+     */
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity > this.capacity)
+            this.grow(Math.max(minCapacity, this.capacity * 2));
+    }
+
+    /**
+     * Grows every column to the new capacity
+     * @param newCapacity the new number of operations the columns can hold
+     */
+    private void grow(int newCapacity) {
+        for (int field = 0; field < FIELDS; field++) {
+            int[] column = new int[newCapacity];
+            System.arraycopy(this.columns[field], 0, column, 0, this.size);
+            this.columns[field] = column;
         }
+        this.capacity = newCapacity;
     }
 
 }
@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A linear scan allocator (Poletto and Sarkar) for when allocation time matters more than the
+ * code it produces.
+ *
+ * The interval of each VR runs from its definition to its last use, the use whose next use (NU)
+ * IRRenamer left at Integer.MAX_VALUE. A VR used without being defined is live from the start of
+ * the block. Definitions come in block order, so the intervals are visited by start without
+ * sorting. The active intervals are kept in an int array sorted by end, at most numPhysRegs - 3
+ * long: expired intervals come off the front and the one ending last is at the back. When no PR
+ * is free, the interval ending last of the active ones and the new one is spilled everywhere by
+ * SpillEverywhereRewriter, which keeps three PRs for the spill code.
+ */
+public class LinearScanAllocator implements RegisterAllocator {
+
+    private final IntRepList iRep;
+    private final int numPhysRegs;
+    private final int maxVRNum;
+
+    /**
+     * end[vr] is the index of the last use of vr
+     */
+    private int[] end;
+
+    /**
+     * The PR of each VR, -1 for a spilled VR
+     */
+    private int[] VRToPR;
+
+    /**
+     * The stack of free PRs
+     */
+    private int[] freePRs;
+    private int freeCount;
+
+    /**
+     * The VRs holding a PR, active[0 .. activeCount - 1], sorted by the end of their intervals
+     */
+    private int[] active;
+    private int activeCount;
+
+    private SpillEverywhereRewriter rewriter;
+
+    /**
+     * @param iRep the renamed block
+     * @param numPhysRegs the number of physical registers available, at least 3
+     * @param maxVRNum the number of VRs in the block
+     */
+    public LinearScanAllocator(IntRepList iRep, int numPhysRegs, int maxVRNum) {
+        if (numPhysRegs < SpillEverywhereRewriter.RESERVED)
+            throw new IllegalArgumentException("linear scan needs at least " + SpillEverywhereRewriter.RESERVED + " registers");
+        this.iRep = iRep;
+        this.numPhysRegs = numPhysRegs;
+        this.maxVRNum = maxVRNum;
+    }
+
+    public void Allocate() {
+        /*
+         * Opcode Array representation:
+         *
+         * OPCODE       Argument 1          Argument 2          Argument 3
+         *             SR VR PR NU         SR VR PR NU         SR VR PR NU
+         *   0         1  2  3  4          5  6  7  8          9  10 11 12
+         *
+         */
+        IntRepList ir = this.iRep;
+        int n = this.maxVRNum;
+
+        // the intervals: start is the defining operation (-1 for a VR live into the block), end the last use
+        int[] start = new int[n];
+        int[] end = new int[n];
+        Arrays.fill(start, Integer.MIN_VALUE);
+        for (int op = 0; op < ir.size(); op++) {
+            int opCode = ir.getOpCode(op);
+            if (opCode != 1 && opCode < 8) { // only these use registers
+                int lastOPUseInd = opCode == 2 ? 10 : 6; // the store also uses its third register
+                for (int opBaseInd = 1; opBaseInd < lastOPUseInd; opBaseInd += 4) {
+                    if (ir.get(op, opBaseInd) == IntRepList.ABSENT)
+                        continue;
+                    int VR = ir.get(op, opBaseInd + 1);
+                    if (start[VR] == Integer.MIN_VALUE)
+                        start[VR] = -1; // used before any definition
+                    if (ir.get(op, opBaseInd + 3) == Integer.MAX_VALUE)
+                        end[VR] = op;
+                }
+            }
+            if (opCode != 2 && opCode < 8) { // defines the register at index 9
+                int VR = ir.get(op, 10);
+                start[VR] = op;
+                if (ir.get(op, 12) == Integer.MAX_VALUE) // never used
+                    end[VR] = op;
+            }
+        }
+
+        int colors = this.numPhysRegs - SpillEverywhereRewriter.RESERVED;
+        this.end = end;
+        this.VRToPR = new int[n];
+        Arrays.fill(this.VRToPR, -1);
+        this.freePRs = new int[colors];
+        for (int pr = colors - 1; pr >= 0; pr--)
+            this.freePRs[this.freeCount++] = pr;
+        this.active = new int[colors];
+
+        // the VRs live into the block come first, then the rest in the order they are defined
+        for (int vr = 0; vr < n; vr++) {
+            if (start[vr] == -1)
+                this.assign(vr, -1);
+        }
+        for (int op = 0; op < ir.size(); op++) {
+            int opCode = ir.getOpCode(op);
+            if (opCode != 2 && opCode < 8)
+                this.assign(ir.get(op, 10), op);
+        }
+
+        this.rewriter = new SpillEverywhereRewriter(ir, this.numPhysRegs, n);
+        this.rewriter.rewrite(this.VRToPR);
+    }
+
+    /**
+     * Gives the interval of a VR a PR, or spills it or the active interval that ends last
+     * @param VR the VR
+     * @param start where its interval starts
+     */
+    private void assign(int VR, int start) {
+        int[] active = this.active;
+        int[] end = this.end;
+
+        // free the PRs of the intervals that ended, a last use and a definition can share one
+        int expired = 0;
+        while (expired < this.activeCount && end[active[expired]] <= start)
+            this.freePRs[this.freeCount++] = this.VRToPR[active[expired++]];
+        if (expired > 0) {
+            System.arraycopy(active, expired, active, 0, this.activeCount - expired);
+            this.activeCount -= expired;
+        }
+
+        if (this.freeCount == 0) { // spill whichever of this and the last active interval ends later
+            if (this.activeCount == 0 || end[active[this.activeCount - 1]] <= end[VR])
+                return; // this VR is spilled
+            int victim = active[--this.activeCount];
+            this.freePRs[this.freeCount++] = this.VRToPR[victim];
+            this.VRToPR[victim] = -1;
+        }
+        this.VRToPR[VR] = this.freePRs[--this.freeCount];
+        int position = this.activeCount;
+        while (position > 0 && end[active[position - 1]] > end[VR])
+            position--;
+        System.arraycopy(active, position, active, position + 1, this.activeCount - position);
+        active[position] = VR;
+        this.activeCount++;
+    }
+
+    public IntRepList getAllocatedBlock() {
+        return this.rewriter.getAllocatedBlock();
+    }
+
+    public void PrintRenamedBlock(ILOCWriter writer) throws IOException {
+        this.rewriter.PrintRenamedBlock(writer);
+    }
+
+    public int getStoreCount() {
+        return this.rewriter.getStoreCount();
+    }
+
+    public int getRestoreCount() {
+        return this.rewriter.getRestoreCount();
+    }
+
+    public int getRematCount() {
+        return this.rewriter.getRematCount();
+    }
+
+    public int getPeakSpillBytes() {
+        return this.rewriter.getPeakSpillBytes();
+    }
+}
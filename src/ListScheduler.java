@@ -0,0 +1,367 @@
+import java.util.Arrays;
+
+/**
+ * Reorders a block so that operations waiting on a load, store or mult stall the pipeline less.
+ *
+ * A dependence graph is built over the block with an edge for every ordering that has to be kept:
+ * a register read after its definition, a register defined again after it was read or defined,
+ * a load or output after a store to the same memory, a store after a load, output or store of the
+ * same memory, and the outputs in their order. The registers are the VRs of a renamed block, to
+ * schedule before allocating, or the PRs of an allocated one, to schedule after. Memory is either
+ * a spill slot (an address a loadI set to RAllocator.SPILL_BASE or above, which the block itself
+ * never touches) or the rest of memory, taken as one location, so spill code only waits on the
+ * spill code of its own slot.
+ *
+ * Each operation gets the latency weighted length of the longest path from it to the end of the
+ * block, and the operations are list scheduled on a machine that issues one operation per cycle
+ * in order: every cycle the ready operation with the longest path goes, and when none is ready the
+ * machine stalls until one is. The same machine run over the block in its original order gives the
+ * cycle estimate it is compared to.
+ */
+public class ListScheduler {
+
+    /**
+     * The cycles each opcode takes, also the default latencies of ILOCSimulator
+     */
+    //                            0  1  2  3  4  5  6  7  8  9
+    static final int[] LATENCY = {5, 1, 5, 1, 1, 3, 1, 1, 1, 1};
+    //            load loadI store add sub mult lshift rshift output nop
+
+    /**
+     * The location index of all memory outside the spill area
+     */
+    private static final int PROGRAM_MEMORY = 0;
+
+    private final IntRepList block;
+    private final int registerField;
+
+    /**
+     * The edges of the dependence graph, by the operation they leave from: the successors of op
+     * are edgeTo[edgeStart[op]] to edgeTo[edgeStart[op + 1] - 1]
+     */
+    private int[] edgeStart;
+    private int[] edgeTo;
+    private int[] edgeLatency;
+
+    /**
+     * The edges as they are added, before they are sorted into edgeStart
+     */
+    private int[] addedFrom;
+    private int[] addedTo;
+    private int[] addedLatency;
+    private int edgeCount;
+
+    private int cyclesBefore;
+    private int cyclesAfter;
+
+    /**
+     * @param block the block to reorder
+     * @param registerField 2 to schedule a renamed block by its VRs, 3 to schedule an allocated
+     *                      block by its PRs
+     */
+    public ListScheduler(IntRepList block, int registerField) {
+        if (registerField != 2 && registerField != 3)
+            throw new IllegalArgumentException("a block is scheduled by its VRs (2) or PRs (3)");
+        this.block = block;
+        this.registerField = registerField;
+    }
+
+    /**
+     * Reorders the block. A renamed block gets its next use fields set again for the new order.
+     */
+    public void Schedule() {
+        IntRepList ir = this.block;
+        int size = ir.size();
+        this.buildGraph();
+
+        // the longest latency weighted path from each operation to the end, edges only go forward
+        int[] priority = new int[size];
+        for (int op = size - 1; op >= 0; op--) {
+            int longest = LATENCY[ir.getOpCode(op)];
+            for (int edge = this.edgeStart[op]; edge < this.edgeStart[op + 1]; edge++)
+                longest = Math.max(longest, this.edgeLatency[edge] + priority[this.edgeTo[edge]]);
+            priority[op] = longest;
+        }
+
+        int[] predecessors = new int[size]; // the predecessors of each operation not issued yet
+        for (int edge = 0; edge < this.edgeCount; edge++)
+            predecessors[this.edgeTo[edge]]++;
+        int[] earliest = new int[size]; // the first cycle each operation's operands are ready in
+        LongHeap waiting = new LongHeap(size); // by earliest cycle, once every predecessor issued
+        LongHeap ready = new LongHeap(size); // by priority, longest path first
+        for (int op = 0; op < size; op++) {
+            if (predecessors[op] == 0)
+                waiting.add(op);
+        }
+
+        int[] order = new int[size];
+        int cycle = 0;
+        int done = 0;
+        for (int issued = 0; issued < size; issued++) {
+            if (ready.isEmpty())
+                cycle = Math.max(cycle, (int) (waiting.peek() >>> 32)); // stall
+            while (!waiting.isEmpty() && (int) (waiting.peek() >>> 32) <= cycle) {
+                int op = (int) waiting.poll();
+                ready.add((long) (Integer.MAX_VALUE - priority[op]) << 32 | op);
+            }
+            int op = (int) ready.poll();
+            order[issued] = op;
+            done = Math.max(done, cycle + LATENCY[ir.getOpCode(op)]);
+            for (int edge = this.edgeStart[op]; edge < this.edgeStart[op + 1]; edge++) {
+                int successor = this.edgeTo[edge];
+                earliest[successor] = Math.max(earliest[successor], cycle + this.edgeLatency[edge]);
+                if (--predecessors[successor] == 0)
+                    waiting.add((long) earliest[successor] << 32 | successor);
+            }
+            cycle++;
+        }
+        this.cyclesAfter = done;
+        this.cyclesBefore = this.estimateInOrder();
+
+        IntRepList original = new IntRepList(size);
+        original.appendAll(ir);
+        ir.clear();
+        for (int op : order)
+            ir.append(original, op);
+        if (this.registerField == 2)
+            IRRenamer.SetNextUses(ir, this.maxRegister() + 1);
+    }
+
+    /**
+     * @return the cycles the block takes in its original order
+     */
+    private int estimateInOrder() {
+        int[] earliest = new int[this.block.size()];
+        int cycle = 0;
+        int done = 0;
+        for (int op = 0; op < this.block.size(); op++) {
+            cycle = Math.max(cycle, earliest[op]);
+            done = Math.max(done, cycle + LATENCY[this.block.getOpCode(op)]);
+            for (int edge = this.edgeStart[op]; edge < this.edgeStart[op + 1]; edge++) {
+                int successor = this.edgeTo[edge];
+                earliest[successor] = Math.max(earliest[successor], cycle + this.edgeLatency[edge]);
+            }
+            cycle++;
+        }
+        return done;
+    }
+
+    /**
+     * Builds the dependence graph of the block
+     */
+    private void buildGraph() {
+        IntRepList ir = this.block;
+        int size = ir.size();
+        int reg = this.registerField - 1; // added to an argument's base index gives its register
+        this.addedFrom = new int[Math.max(16, size * 2)];
+        this.addedTo = new int[this.addedFrom.length];
+        this.addedLatency = new int[this.addedFrom.length];
+        this.edgeCount = 0;
+
+        int numRegs = this.maxRegister() + 1;
+        int[] lastDef = new int[numRegs];
+        Arrays.fill(lastDef, -1);
+        long[] constant = new long[numRegs]; // the constant a loadI put in each register, or -1
+        Arrays.fill(constant, -1);
+        int[] spillAddresses = this.spillAddresses();
+        int numLocations = spillAddresses.length + 1;
+        int[] lastStore = new int[numLocations];
+        Arrays.fill(lastStore, -1);
+        int lastOutput = -1;
+
+        // the operations that read a register since its last definition, and memory since its
+        // last store, as linked lists through readerOp and readerNext
+        int[] regReaders = new int[numRegs];
+        Arrays.fill(regReaders, -1);
+        int[] memReaders = new int[numLocations];
+        Arrays.fill(memReaders, -1);
+        int[] readerOp = new int[size * 3];
+        int[] readerNext = new int[size * 3];
+        int readerCount = 0;
+
+        for (int op = 0; op < size; op++) {
+            int opCode = ir.getOpCode(op);
+            if (opCode != 1 && opCode < 8) { // only these use registers
+                int lastOPUseInd = opCode == 2 ? 10 : 6; // the store also uses its third register
+                for (int opBaseInd = 1; opBaseInd < lastOPUseInd; opBaseInd += 4) {
+                    int r = ir.get(op, opBaseInd + reg);
+                    if (r == IntRepList.ABSENT)
+                        continue;
+                    if (lastDef[r] != -1)
+                        this.addEdge(lastDef[r], op, LATENCY[ir.getOpCode(lastDef[r])]);
+                    readerOp[readerCount] = op;
+                    readerNext[readerCount] = regReaders[r];
+                    regReaders[r] = readerCount++;
+                }
+            }
+
+            if (opCode == 0 || opCode == 2 || opCode == 8) { // touches memory
+                int location = PROGRAM_MEMORY;
+                if (opCode != 8) {
+                    long address = constant[ir.get(op, (opCode == 0 ? 1 : 9) + reg)]; // the address register
+                    if (address >= RAllocator.SPILL_BASE)
+                        location = 1 + Arrays.binarySearch(spillAddresses, (int) address);
+                }
+                if (opCode == 2) { // store
+                    if (lastStore[location] != -1)
+                        this.addEdge(lastStore[location], op, 1);
+                    for (int reader = memReaders[location]; reader != -1; reader = readerNext[reader])
+                        this.addEdge(readerOp[reader], op, 0);
+                    memReaders[location] = -1;
+                    lastStore[location] = op;
+                } else { // load or output
+                    if (lastStore[location] != -1)
+                        this.addEdge(lastStore[location], op, LATENCY[2]);
+                    readerOp[readerCount] = op;
+                    readerNext[readerCount] = memReaders[location];
+                    memReaders[location] = readerCount++;
+                }
+                if (opCode == 8) {
+                    if (lastOutput != -1)
+                        this.addEdge(lastOutput, op, 1);
+                    lastOutput = op;
+                }
+            }
+
+            if (opCode != 2 && opCode < 8) { // defines the register of the third argument
+                int r = ir.get(op, 9 + reg);
+                for (int reader = regReaders[r]; reader != -1; reader = readerNext[reader]) {
+                    if (readerOp[reader] != op)
+                        this.addEdge(readerOp[reader], op, 0);
+                }
+                regReaders[r] = -1;
+                if (lastDef[r] != -1)
+                    this.addEdge(lastDef[r], op, LATENCY[ir.getOpCode(lastDef[r])]);
+                lastDef[r] = op;
+                constant[r] = opCode == 1 ? ir.get(op, 1) : -1;
+            }
+        }
+
+        // sort the edges by the operation they leave from
+        this.edgeStart = new int[size + 1];
+        for (int edge = 0; edge < this.edgeCount; edge++)
+            this.edgeStart[this.addedFrom[edge] + 1]++;
+        for (int op = 0; op < size; op++)
+            this.edgeStart[op + 1] += this.edgeStart[op];
+        this.edgeTo = new int[this.edgeCount];
+        this.edgeLatency = new int[this.edgeCount];
+        int[] next = Arrays.copyOf(this.edgeStart, size);
+        for (int edge = 0; edge < this.edgeCount; edge++) {
+            int slot = next[this.addedFrom[edge]]++;
+            this.edgeTo[slot] = this.addedTo[edge];
+            this.edgeLatency[slot] = this.addedLatency[edge];
+        }
+        this.addedFrom = null;
+        this.addedTo = null;
+        this.addedLatency = null;
+    }
+
+    private void addEdge(int from, int to, int latency) {
+        if (this.edgeCount == this.addedFrom.length) {
+            int capacity = this.edgeCount * 2;
+            this.addedFrom = Arrays.copyOf(this.addedFrom, capacity);
+            this.addedTo = Arrays.copyOf(this.addedTo, capacity);
+            this.addedLatency = Arrays.copyOf(this.addedLatency, capacity);
+        }
+        this.addedFrom[this.edgeCount] = from;
+        this.addedTo[this.edgeCount] = to;
+        this.addedLatency[this.edgeCount++] = latency;
+    }
+
+    /**
+     * @return the constants of the loadIs in the spill area, sorted and without repeats
+     */
+    private int[] spillAddresses() {
+        IntRepList ir = this.block;
+        int[] addresses = new int[ir.size()];
+        int count = 0;
+        for (int op = 0; op < ir.size(); op++) {
+            if (ir.getOpCode(op) == 1 && ir.get(op, 1) >= RAllocator.SPILL_BASE)
+                addresses[count++] = ir.get(op, 1);
+        }
+        Arrays.sort(addresses, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || addresses[i] != addresses[unique - 1])
+                addresses[unique++] = addresses[i];
+        }
+        return Arrays.copyOf(addresses, unique);
+    }
+
+    /**
+     * @return the largest register number in the block
+     */
+    private int maxRegister() {
+        IntRepList ir = this.block;
+        int max = 0;
+        for (int op = 0; op < ir.size(); op++) {
+            int opCode = ir.getOpCode(op);
+            // the first field of a loadI or output is a constant, unused fields are ABSENT
+            for (int opBaseInd = opCode == 1 || opCode == 8 ? 5 : 1; opBaseInd < IntRepList.FIELDS; opBaseInd += 4)
+                max = Math.max(max, ir.get(op, opBaseInd + this.registerField - 1));
+        }
+        return max;
+    }
+
+    /**
+     * @return the cycles the block took in its original order, by the estimate of the last Schedule
+     */
+    public int getCyclesBefore() {
+        return this.cyclesBefore;
+    }
+
+    /**
+     * @return the cycles the block takes in the order Schedule put it in
+     */
+    public int getCyclesAfter() {
+        return this.cyclesAfter;
+    }
+
+    /**
+     * A binary min heap of longs, which the scheduler packs a key and an operation into
+     */
+    private static class LongHeap {
+        private long[] heap;
+        private int size;
+
+        LongHeap(int capacity) {
+            this.heap = new long[Math.max(16, capacity)];
+        }
+
+        boolean isEmpty() {
+            return this.size == 0;
+        }
+
+        long peek() {
+            return this.heap[0];
+        }
+
+        void add(long value) {
+            if (this.size == this.heap.length)
+                this.heap = Arrays.copyOf(this.heap, this.size * 2);
+            int i = this.size++;
+            while (i > 0 && this.heap[(i - 1) / 2] > value) {
+                this.heap[i] = this.heap[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            this.heap[i] = value;
+        }
+
+        long poll() {
+            long top = this.heap[0];
+            long last = this.heap[--this.size];
+            int i = 0;
+            while (2 * i + 1 < this.size) {
+                int child = 2 * i + 1;
+                if (child + 1 < this.size && this.heap[child + 1] < this.heap[child])
+                    child++;
+                if (this.heap[child] >= last)
+                    break;
+                this.heap[i] = this.heap[child];
+                i = child;
+            }
+            this.heap[i] = last;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Keeps the next use of every occupied physical register so the allocator can find its spill
+ * victim (the PR whose next use is furthest away) without looking at every PR.
+ *
+ * The PRs are split into blocks of BLOCK registers and the index remembers which PR of each block
+ * has the furthest next use. Setting a next use is O(1): a larger key can only take over its
+ * block, and a block only needs a rescan when its own maximum shrinks or is removed, which is
+ * recorded and done lazily. Finding the victim rescans the few blocks that changed and then looks
+ * at one candidate per block, so it costs O(BLOCK + k / BLOCK) instead of O(k). Ties go to the
+ * lowest PR number, the same choice as a scan over all PRs.
+ *
+ * Up to SCAN_LIMIT PRs a plain scan over the keys is faster than keeping the blocks up to date,
+ * so the index only keeps the keys and scans them.
+ */
+public class PRNextUseIndex {
+
+    /**
+     * The number of PRs per block
+     */
+    private static final int BLOCK = 32;
+
+    /**
+     * The key of a PR that is not occupied
+     */
+    private static final int NONE = Integer.MIN_VALUE;
+
+    /**
+     * The largest number of PRs for which max scans every key
+     */
+    private static final int SCAN_LIMIT = 256;
+
+    /**
+     * key[pr] is the next use of pr, NONE if pr is not in the index
+     */
+    private final int[] key;
+
+    /**
+     * blockMax[b] is the PR with the furthest next use in block b, only valid when b is not dirty
+     */
+    private final int[] blockMax;
+
+    /**
+     * The blocks whose maximum has to be found again
+     */
+    private final int[] dirty;
+    private final boolean[] isDirty;
+    private int dirtyCount;
+
+    private final int numBlocks;
+    private final boolean blocked;
+
+    /**
+     * @param numPRs the number of PRs, PR numbers go from 0 to numPRs - 1
+     */
+    public PRNextUseIndex(int numPRs) {
+        this.numBlocks = (numPRs + BLOCK - 1) / BLOCK;
+        this.blocked = numPRs > SCAN_LIMIT;
+        this.key = new int[this.numBlocks * BLOCK];
+        for (int pr = 0; pr < this.key.length; pr++) {
+            this.key[pr] = NONE;
+        }
+        this.blockMax = new int[this.numBlocks];
+        for (int b = 0; b < this.numBlocks; b++) {
+            this.blockMax[b] = b * BLOCK;
+        }
+        this.dirty = new int[this.numBlocks];
+        this.isDirty = new boolean[this.numBlocks];
+    }
+
+    /**
+     * Adds pr or changes its next use if it is already in
+     * @param pr the PR
+     * @param nextUse the new next use
+     */
+    public void set(int pr, int nextUse) {
+        int old = this.key[pr];
+        this.key[pr] = nextUse;
+        if (!this.blocked)
+            return;
+        int b = pr / BLOCK;
+        int max = this.blockMax[b];
+        if (nextUse > this.key[max] || (nextUse == this.key[max] && pr < max))
+            this.blockMax[b] = pr;
+        else if (max == pr && nextUse < old)
+            this.markDirty(b);
+    }
+
+    /**
+     * Takes pr out, if it is in
+     * @param pr the PR
+     */
+    public void remove(int pr) {
+        if (this.key[pr] == NONE)
+            return;
+        this.key[pr] = NONE;
+        if (!this.blocked)
+            return;
+        int b = pr / BLOCK;
+        if (this.blockMax[b] == pr)
+            this.markDirty(b);
+    }
+
+    /**
+     * Gets the PR with the furthest next use, other than excluded
+     * @param excluded a PR that must not be returned, -1 for none
+     * @return the PR, -1 if there is none
+     */
+    public int max(int excluded) {
+        if (!this.blocked) {
+            int best = -1;
+            int bestKey = NONE;
+            for (int pr = 0; pr < this.key.length; pr++) {
+                if (this.key[pr] > bestKey && pr != excluded) {
+                    best = pr;
+                    bestKey = this.key[pr];
+                }
+            }
+            return best;
+        }
+        for (int i = 0; i < this.dirtyCount; i++) {
+            int b = this.dirty[i];
+            this.isDirty[b] = false;
+            this.blockMax[b] = this.scanBlock(b, -1);
+        }
+        this.dirtyCount = 0;
+
+        int best = -1;
+        int bestKey = NONE;
+        for (int b = 0; b < this.numBlocks; b++) {
+            int max = this.blockMax[b];
+            if (max == excluded)
+                max = this.scanBlock(b, excluded);
+            if (this.key[max] > bestKey) {
+                best = max;
+                bestKey = this.key[max];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param b the block
+     * @param excluded a PR to skip, -1 for none
+     * @return the PR with the furthest next use in block b
+     */
+    private int scanBlock(int b, int excluded) {
+        int start = b * BLOCK;
+        int max = start == excluded ? start + 1 : start;
+        for (int pr = max + 1; pr < start + BLOCK; pr++) {
+            if (this.key[pr] > this.key[max] && pr != excluded)
+                max = pr;
+        }
+        return max;
+    }
+
+    /**
+     * Records that the maximum of block b is no longer known
+     */
+    private void markDirty(int b) {
+        if (!this.isDirty[b]) {
+            this.isDirty[b] = true;
+            this.dirty[this.dirtyCount++] = b;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parses a large file on several threads. ILOC has one operation per line, so the memory mapped
+ * file is cut into chunks just after a newline and each chunk is parsed by an ILOCParser of its
+ * own into an IR of its own. The pieces are then copied into one IR in file order, and the max SR
+ * numbers are merged.
+ *
+ * Syntax errors keep the line numbers the sequential parser would give them: the newlines of
+ * every chunk are counted first (in parallel too, it is a quick pass), so each parser starts
+ * counting at the right line. The errors of each chunk are kept apart and printed in file order.
+ */
+public class ParallelParser {
+
+    /**
+     * The smallest chunk worth a task of its own
+     */
+    private static final int MIN_CHUNK_BYTES = 1 << 20;
+
+    private final String filePath;
+    private final ForkJoinPool pool;
+
+    private int maxSRNum;
+    private boolean success = true;
+
+    /**
+     * Where syntax errors are printed
+     */
+    private PrintStream errorStream = System.err;
+
+    /**
+     * @param filePath the file to parse, at most 2GB since it is memory mapped
+     * @param pool the threads to parse on
+     */
+    public ParallelParser(String filePath, ForkJoinPool pool) {
+        this.filePath = filePath;
+        this.pool = pool;
+    }
+
+    /**
+     * Parses the file
+     * @return the IR of the whole file, as ILOCParser.ParseGetIRep would give it
+     * @throws IOException if the file can't be mapped
+     */
+    public IntRepList ParseGetIRep() throws IOException {
+        ByteBuffer file = map(this.filePath);
+        int[] starts = this.chunkStarts(file);
+        int chunks = starts.length - 1;
+
+        // the line each chunk starts on
+        List<Callable<Integer>> counts = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            int start = starts[i];
+            int end = starts[i + 1];
+            counts.add(() -> {
+                int lines = 0;
+                for (int pos = start; pos < end; pos++) {
+                    if (file.get(pos) == '\n')
+                        lines++;
+                }
+                return lines;
+            });
+        }
+        List<Future<Integer>> lineCounts = this.pool.invokeAll(counts);
+        int[] firstLines = new int[chunks];
+        firstLines[0] = 1;
+        for (int i = 1; i < chunks; i++)
+            firstLines[i] = firstLines[i - 1] + get(lineCounts.get(i - 1));
+
+        // parse each chunk into its own IR
+        IntRepList[] pieces = new IntRepList[chunks];
+        ILOCParser[] parsers = new ILOCParser[chunks];
+        ByteArrayOutputStream[] errors = new ByteArrayOutputStream[chunks];
+        List<Callable<Integer>> parses = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            int chunk = i;
+            parses.add(() -> {
+                int length = starts[chunk + 1] - starts[chunk];
+                ByteBuffer text = file.slice(starts[chunk], length);
+                ILOCParser parser = new ILOCParser(text);
+                pieces[chunk] = new IntRepList(length / 16); // about the shortest operation
+                parser.reset(text, pieces[chunk]);
+                parser.setFirstLine(firstLines[chunk]);
+                errors[chunk] = new ByteArrayOutputStream();
+                parser.setErrorStream(new PrintStream(errors[chunk], true));
+                parser.ParseGetIRep();
+                parsers[chunk] = parser;
+                return pieces[chunk].size();
+            });
+        }
+        int total = 0;
+        for (Future<Integer> size : this.pool.invokeAll(parses))
+            total += get(size);
+
+        // put the pieces together in file order
+        IntRepList iRep = new IntRepList(total);
+        for (int i = 0; i < chunks; i++) {
+            iRep.appendAll(pieces[i]);
+            pieces[i] = null;
+            this.maxSRNum = Math.max(this.maxSRNum, parsers[i].getMaxSRNum());
+            this.success &= parsers[i].isSuccess();
+            if (errors[i].size() > 0)
+                this.errorStream.print(errors[i].toString());
+        }
+        return iRep;
+    }
+
+    /**
+     * Cuts the file into chunks of about the same size, each starting at the beginning of a line
+     * @return the offsets the chunks start at, followed by the size of the file
+     */
+    private int[] chunkStarts(ByteBuffer file) {
+        int size = file.limit();
+        int chunks = Math.max(1, Math.min(this.pool.getParallelism() * 4, size / MIN_CHUNK_BYTES));
+        int[] starts = new int[chunks + 1];
+        int count = 1; // the first chunk starts at 0
+        for (int i = 1; i < chunks; i++) {
+            int pos = (int) ((long) size * i / chunks);
+            while (pos < size && file.get(pos - 1) != '\n')
+                pos++;
+            if (pos < size && pos > starts[count - 1])
+                starts[count++] = pos;
+        }
+        starts[count++] = size;
+        return Arrays.copyOf(starts, count);
+    }
+
+    /**
+     * @return the result of a task that is done, rethrowing what it threw
+     */
+    private static int get(Future<Integer> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while parsing");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Maps the whole file into memory
+     * @throws IOException if the file can't be opened or is too large to map as one buffer
+     */
+    private static ByteBuffer map(String filePath) throws IOException {
+        try (FileChannel channel = new RandomAccessFile(filePath, "r").getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException(filePath + " is too large to be memory mapped (over 2GB)");
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Gets the max Source Register number
+     * @return the largest maxSRNum of the chunks
+     */
+    public int getMaxSRNum() {
+        return this.maxSRNum;
+    }
+
+    /**
+     * @return whether every statement in the file was correct
+     */
+    public boolean isSuccess() {
+        return this.success;
+    }
+
+    /**
+     * @param errorStream where syntax errors are printed, System.err by default
+     */
+    public void setErrorStream(PrintStream errorStream) {
+        this.errorStream = errorStream;
+    }
+}
@@ -1,9 +1,10 @@
-import java.util.*;
+import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Sets the physical register
  */
-public class RAllocator {
+public class RAllocator implements RegisterAllocator {
 
 
     //                                      0        1        2       3      4      5        6
@@ -11,46 +12,131 @@ public class RAllocator {
             "rshift", "output", "nop", ",", "=>", "NOT IN LEXEME"};
     //         7         8        9    10    11        12
 
-    Integer[] VRToPR;
-    Integer[] PRToVR;
-    Stack<Integer> PRStack;
-    Integer[] VRToSpillLoc;
-    Integer[] PRNU;
+    int[] VRToPR;
+    int[] PRToVR;
+    /**
+     * VRToSpillLoc[vr] is the spill location holding vr, -1 if it has none. A VR is only defined
+     * once, so the copy stays valid after a restore and a VR with a location is clean: it can be
+     * evicted again without a store.
+     */
+    int[] VRToSpillLoc;
+
+    /**
+     * VRToConst[vr] is the constant vr was defined with by a loadI, ABSENT if it is not known.
+     * Such a VR is never stored when it is spilled, it is loaded again with a loadI instead.
+     */
+    int[] VRToConst;
+
+    /**
+     * The occupied PRs keyed on their next use, for picking spill victims
+     */
+    PRNextUseIndex PRNU;
+
+    /**
+     * The stack of free PRs, PRStack[0 .. PRStackSize - 1]
+     */
+    int[] PRStack;
+    int PRStackSize;
+
+    /**
+     * The first spill location
+     */
+    static final int SPILL_BASE = 32768;
 
     /**
-     * The next spill location
+     * The next spill location never used so far
      */
-    Integer nextSpillLoc;
+    int nextSpillLoc;
 
-    LinkedList<Integer[]> iRep;
+    /**
+     * The stack of spill locations whose VRs are dead, reused before new ones
+     */
+    int[] freeSpillLocs;
+    int freeSpillLocCount;
 
-    IntRepList iRepBetter;
+    /**
+     * The number of stores, restores and rematerializations emitted
+     */
+    int storeCount;
+    int restoreCount;
+    int rematCount;
 
-    Stack<Integer> prsToFree;
+    /**
+     * The renamed block. The allocator writes the PR fields of its operations in place.
+     */
+    IntRepList iRep;
 
+    /**
+     * The spill and restore operations inserted by the allocator, in the order they run
+     */
+    IntRepList spillCode;
+
+    /**
+     * spillAnchor[i] is the index of the operation in iRep that spill operation i goes in front of
+     */
+    int[] spillAnchor;
+
+    /**
+     * The VRs whose PRs should be freed once the uses of the current operation are processed
+     */
+    int[] prsToFree;
+    int prsToFreeSize;
+
+    /**
+     * The PR that must not be chosen as a spill victim while the uses of an operation are
+     * being assigned (the PR of its first operand), -1 if none
+     */
+    int lockedPR;
+
+    /**
+     * The index of the operation being allocated
+     */
+    int current;
 
     int numPhysRegs;
+
+    /**
+     * Where allocation decisions are recorded, null when tracing is off
+     */
+    AllocationTrace trace;
+
     /**
      * Creates the allocator class with the given iRep
      * @param iRep the intermediate representation
-     * @param numPhysRegs the number of physical registers available
+     * @param numPhysRegs the number of physical registers available, at least 3
      * @param maxVRNum the maximum virtual register number that occurs
      */
-    public RAllocator (LinkedList<Integer[]> iRep, int numPhysRegs, int maxVRNum) {
+    public RAllocator (IntRepList iRep, int numPhysRegs, int maxVRNum) {
+        if (numPhysRegs < 3) // two operands and the spill address
+            throw new IllegalArgumentException("the allocator needs at least 3 registers");
         this.iRep = iRep;
-        this.iRepBetter = new IntRepList();
-        this.iRepBetter.transferLinkedList(iRep);
+        this.spillCode = new IntRepList();
+        this.spillAnchor = new int[1024];
         this.numPhysRegs = numPhysRegs;
         VRToPR = getNegArray(maxVRNum);
         PRToVR = getNegArray(numPhysRegs); // note that the last register is reserved for spilling
         VRToSpillLoc = getNegArray(maxVRNum);
-        PRNU = getNegArray(numPhysRegs);
-        nextSpillLoc = 32764; // a number to keep track of the memory location to which to spill
-        this.PRStack = new Stack<>(); //
+        VRToConst = new int[maxVRNum];
+        Arrays.fill(VRToConst, IntRepList.ABSENT);
+        PRNU = new PRNextUseIndex(numPhysRegs);
+        nextSpillLoc = SPILL_BASE; // a number to keep track of the memory location to which to spill
+        freeSpillLocs = new int[16];
+        this.PRStack = new int[numPhysRegs];
         this.fillPRStack();
-        prsToFree = new Stack<>();
+        prsToFree = new int[3];
+        lockedPR = -1;
+    }
+
+    /**
+     * @param trace where to record allocation decisions, null to turn tracing off
+     */
+    public void setTrace(AllocationTrace trace) {
+        this.trace = trace;
     }
 
+    /**
+     * Assigns a PR to every register of the block, adding spill code where there aren't enough
+     */
     public void Allocate() {
 
         /*
@@ -68,62 +154,70 @@ public class RAllocator {
                    7         8        9    10    11        12
          */
 
+        IntRepList ir = this.iRep;
+        for (current = 0; current < ir.size(); current++) {
 
-        IntRepList.OpNode current = this.iRepBetter.head;
-        while (null != current) {
-
-            Integer[] thisOP = current.opArray;
+            int opCode = ir.getOpCode(current);
 
             // for each operand USED in nextOP
-            int lastOPUseInd = thisOP[0] == 2 ? 10 : 6; // only the store has uses past the argument 2 indexes in the IR
+            int lastOPUseInd = opCode == 2 ? 10 : 6; // only the store has uses past the argument 2 indexes in the IR
             for (int opBaseInd = 1; opBaseInd < lastOPUseInd; opBaseInd += 4) { // for each operand USED in nextOP
-                if (thisOP[opBaseInd] != null && thisOP[0] != 1 && thisOP[0] < 8) { // only use registers
+                if (ir.get(current, opBaseInd) != IntRepList.ABSENT && opCode != 1 && opCode < 8) { // only use registers
 
                     int VRInd = opBaseInd + 1;
                     int PRInd = opBaseInd + 2;
                     int NUInd = opBaseInd + 3;
 
                     int PRNum;
-                    int VRNum = thisOP[VRInd];
-                    if (VRToSpillLoc[VRNum] != -1) //checks if spilled
-                        PRNum = Restore(VRNum, current); // restores it
-                    else if (VRToPR[VRNum] != -1){ // if the vr already has a pr assigned
+                    int VRNum = ir.get(current, VRInd);
+                    if (VRToPR[VRNum] != -1){ // if the vr already has a pr assigned
                         PRNum = VRToPR[VRNum];
                     }
+                    else if (VRToSpillLoc[VRNum] != -1) //checks if spilled
+                        PRNum = Restore(VRNum); // restores it
+                    else if (VRToConst[VRNum] != IntRepList.ABSENT) // a constant that was spilled
+                        PRNum = Rematerialize(VRNum);
                     else {
-                        PRNum = this.getPR(current);
+                        PRNum = this.getPR();
                         VRToPR[VRNum] = PRNum;
                         PRToVR[PRNum] = VRNum;
                     }
-                    thisOP[PRInd] = PRNum;
-                    PRNU[PRNum] = thisOP[NUInd];
-                    if (null == thisOP[NUInd] || thisOP[NUInd] <= 0) {
-                        this.prsToFree.push(VRNum);
+                    ir.set(current, PRInd, PRNum);
+                    PRNU.set(PRNum, spillKey(VRNum, ir.get(current, NUInd)));
+                    if (this.trace != null)
+                        this.trace.record(current, AllocationTrace.USE, VRNum, PRNum, PRStackSize);
+                    if (ir.get(current, NUInd) == Integer.MAX_VALUE) { // no next use, so this is the last use
+                        this.prsToFree[this.prsToFreeSize++] = VRNum;
                     }
-
+                    lockedPR = PRNum; // the second operand must not evict the first
                 }
             }
+            lockedPR = -1;
 
             this.FreePRs();
 
             // for every operand DEFINED in nextOP
             // only do this if the OP is not output, nop, or store
-            if (thisOP[0] != 2 && thisOP[0] < 8) {
+            if (opCode != 2 && opCode < 8) {
                 int opBaseInd = 9; // operand base index for any definition is 9
                 int VRInd = opBaseInd + 1;
                 int PRInd = opBaseInd + 2;
                 int NUInd = opBaseInd + 3;
-                thisOP[PRInd] = this.getPR(current);
-                PRToVR[thisOP[PRInd]] = thisOP[VRInd];
-                VRToPR[thisOP[VRInd]] = thisOP[PRInd];
-                PRNU[thisOP[PRInd]] = thisOP[NUInd];
-                if (thisOP[NUInd] == null || thisOP[NUInd] <= 0) {
-                    this.prsToFree.push(thisOP[VRInd]);
+                int PRNum = this.getPR();
+                int VRNum = ir.get(current, VRInd);
+                ir.set(current, PRInd, PRNum);
+                PRToVR[PRNum] = VRNum;
+                VRToPR[VRNum] = PRNum;
+                if (opCode == 1) // loadI, the value can be made again instead of spilled
+                    VRToConst[VRNum] = ir.get(current, 1);
+                PRNU.set(PRNum, spillKey(VRNum, ir.get(current, NUInd)));
+                if (this.trace != null)
+                    this.trace.record(current, AllocationTrace.DEF, VRNum, PRNum, PRStackSize);
+                if (ir.get(current, NUInd) == Integer.MAX_VALUE) { // defined but never used
+                    this.prsToFree[this.prsToFreeSize++] = VRNum;
                     this.FreePRs();
                 }
             }
-            this.ShowRep(thisOP);
-            current = current.next;
         }
 
     }
@@ -133,26 +227,42 @@ public class RAllocator {
      * uses processing
      */
     private void FreePRs() {
-        if (prsToFree.empty())
-            return;
-
-        int VRNum = prsToFree.pop();
-        PRToVR[VRToPR[VRNum]] = -1;
-        PRStack.push(VRToPR[VRNum]);
-        VRToPR[VRNum] = -1;
+        while (prsToFreeSize > 0) {
+            int VRNum = prsToFree[--prsToFreeSize];
+            int PRNum = VRToPR[VRNum];
+            if (PRNum == -1) // already freed (the same VR used twice by one operation)
+                continue;
+            PRToVR[PRNum] = -1;
+            PRNU.remove(PRNum);
+            PRStack[PRStackSize++] = PRNum;
+            VRToPR[VRNum] = -1;
+            if (VRToSpillLoc[VRNum] != -1) { // dead, so its copy in memory is not needed anymore
+                if (freeSpillLocCount == freeSpillLocs.length)
+                    freeSpillLocs = Arrays.copyOf(freeSpillLocs, freeSpillLocCount * 2);
+                freeSpillLocs[freeSpillLocCount++] = VRToSpillLoc[VRNum];
+                VRToSpillLoc[VRNum] = -1;
+            }
+            if (this.trace != null)
+                this.trace.record(current, AllocationTrace.FREE, VRNum, PRNum, PRStackSize);
+        }
     }
 
 
 
     /**
-     * Inserts the given node before the given current node
-     * @param node the node to insert
-     * @param current the node we're trying to insert behind
+     * Adds a new spill operation in front of the operation being allocated
+     * @param opCode the opcode of the spill operation
+     * @return the index of the operation in spillCode
      */
-    private void InsertAt(IntRepList.OpNode node, IntRepList.OpNode current) {
-        current.prev.next = node;
-        node.prev = current.prev;
-        node.next = current;
+    private int Emit(int opCode) {
+        int op = this.spillCode.add(opCode);
+        if (op == this.spillAnchor.length) {
+            int[] grown = new int[op * 2];
+            System.arraycopy(this.spillAnchor, 0, grown, 0, op);
+            this.spillAnchor = grown;
+        }
+        this.spillAnchor[op] = this.current;
+        return op;
     }
 
     /**
@@ -160,7 +270,7 @@ public class RAllocator {
      */
     private void fillPRStack() {
         for (int i = 0; i < PRToVR.length - 1; i++) {
-            PRStack.push(i);
+            PRStack[PRStackSize++] = i;
         }
     }
 
@@ -168,45 +278,100 @@ public class RAllocator {
      * Gets the next available pr
      * @return the pr value
      */
-    private int getPR(IntRepList.OpNode current) {
-        if (PRStack.empty())
-            return this.Spill(current);
-        return PRStack.pop();
+    private int getPR() {
+        if (PRStackSize == 0)
+            return this.Spill();
+        return PRStack[--PRStackSize];
     }
 
-    private int Spill(IntRepList.OpNode current) {
+    /**
+     * The key a PR holding the given VR is kept under in PRNU, the PR with the largest key is the
+     * next spill victim. The key is the next use, moved numPhysRegs operations further away for a
+     * clean VR (already in memory, or a constant) since evicting it emits no store. Always taking
+     * a clean victim first made the code longer: a clean value needed soon costs a restore that
+     * the furthest use would have avoided. A bonus of about k operations did best across register
+     * counts.
+     * @param VRNum the VR
+     * @param nextUse the index of its next use
+     * @return the key
+     */
+    private int spillKey(int VRNum, int nextUse) {
+        if (nextUse != Integer.MAX_VALUE && (VRToSpillLoc[VRNum] != -1 || VRToConst[VRNum] != IntRepList.ABSENT))
+            return nextUse + this.numPhysRegs;
+        return nextUse;
+    }
 
-        Integer[] loadIOPArray = new Integer[13];
-        loadIOPArray[0] = 1; // 'loadI' opcode
-        loadIOPArray[1] = nextSpillLoc += 4; // set the memory spill location
-        loadIOPArray[11] = this.numPhysRegs - 1; // the reserved PR for spill purposes
-        IntRepList.OpNode loadINode = new IntRepList.OpNode(loadIOPArray);
-        InsertAt(loadINode, current);
+    /**
+     * Frees the PR of the best spill victim (see spillKey). Only a dirty value is stored, to a new
+     * spill location: a value already in memory or a constant is just dropped.
+     * @return the freed PR
+     */
+    private int Spill() {
 
         int PR = getPRFurthestUse();
         int VR = PRToVR[PR];
 
-        Integer[] storeOPArray = new Integer[13];
-        storeOPArray[0] = 2; // 'store' opcode
-        storeOPArray[3] = PR; // set the memory spill location
-        storeOPArray[11] = this.numPhysRegs - 1; // the reserved PR for spill purposes
-        IntRepList.OpNode storeNode = new IntRepList.OpNode(storeOPArray);
-        InsertAt(storeNode, current);
+        if (VRToSpillLoc[VR] == -1 && VRToConst[VR] == IntRepList.ABSENT) {
+            int spillLoc = getSpillLoc(); // the memory spill location
+            storeCount++;
+
+            int loadIOP = Emit(1); // 'loadI' opcode
+            this.spillCode.set(loadIOP, 1, spillLoc); // set the memory spill location
+            this.spillCode.set(loadIOP, 11, this.numPhysRegs - 1); // the reserved PR for spill purposes
 
-        VRToSpillLoc[VR] = this.nextSpillLoc += 4;
+            int storeOP = Emit(2); // 'store' opcode
+            this.spillCode.set(storeOP, 3, PR); // the value being spilled
+            this.spillCode.set(storeOP, 11, this.numPhysRegs - 1); // the reserved PR for spill purposes
+
+            VRToSpillLoc[VR] = spillLoc;
+        }
         VRToPR[VR] = -1;
         PRToVR[PR] = -1;
-        PRNU[PR] = -1;
+        PRNU.remove(PR);
+        if (this.trace != null)
+            this.trace.record(current, AllocationTrace.SPILL, VR, PR, PRStackSize);
         return PR;
     }
 
     /**
-     * Spills the next operation into memory because there aren't enough physical registers
+     * Gets a spill location, reusing the location of a dead VR if there is one
+     * @return the address of the location
+     */
+    private int getSpillLoc() {
+        if (freeSpillLocCount > 0)
+            return freeSpillLocs[--freeSpillLocCount];
+        int spillLoc = nextSpillLoc;
+        nextSpillLoc += 4;
+        return spillLoc;
+    }
+
+    /**
+     * Loads a spilled constant into a PR again with a loadI
+     * @param vrNum the virtual register holding the constant
+     * @return the pr that was assigned
+     */
+    private int Rematerialize(int vrNum) {
+        int pr = getPR();
+
+        int loadIOP = Emit(1); // 'loadI' opcode
+        this.spillCode.set(loadIOP, 1, VRToConst[vrNum]); // the constant
+        this.spillCode.set(loadIOP, 11, pr);
+
+        VRToPR[vrNum] = pr;
+        PRToVR[pr] = vrNum;
+        rematCount++;
+        if (this.trace != null)
+            this.trace.record(current, AllocationTrace.REMATERIALIZE, vrNum, pr, PRStackSize);
+        return pr;
+    }
+
+    /**
+     * Loads a spilled VR back from its spill location. The location keeps the value, so the VR
+     * stays clean.
      * @param vrNum the virtual register number to restore
-     * @param current the current node that the iteration is on
      * @return the pr that was assigned during the restore
      */
-    private int Restore(int vrNum, IntRepList.OpNode current) {
+    private int Restore(int vrNum) {
         /*
          * Opcode Array representation:
          *
@@ -216,27 +381,21 @@ public class RAllocator {
          *
          */
 
-        int pr = getPR(current);
+        int pr = getPR();
 
-        Integer[] loadIOPArray = new Integer[13];
-        loadIOPArray[0] = 1; // 'loadI' opcode
-        loadIOPArray[1] = VRToSpillLoc[vrNum]; // set the memory spill location
-        loadIOPArray[11] = this.numPhysRegs - 1; // the reserved PR for spill purposes
-        IntRepList.OpNode loadINode = new IntRepList.OpNode(loadIOPArray);
+        int loadIOP = Emit(1); // 'loadI' opcode
+        this.spillCode.set(loadIOP, 1, VRToSpillLoc[vrNum]); // set the memory spill location
+        this.spillCode.set(loadIOP, 11, this.numPhysRegs - 1); // the reserved PR for spill purposes
 
-        this.InsertAt(loadINode, current);
-
-        Integer[] loadOPArray = new Integer[13];
-        loadOPArray[0] = 0; // 'load' opcode
-        loadOPArray[3] = this.numPhysRegs - 1; // reserved pr
-        loadOPArray[11] = pr;
-        IntRepList.OpNode loadNode = new IntRepList.OpNode(loadOPArray);
-
-        this.InsertAt(loadNode, current);
+        int loadOP = Emit(0); // 'load' opcode
+        this.spillCode.set(loadOP, 3, this.numPhysRegs - 1); // reserved pr
+        this.spillCode.set(loadOP, 11, pr);
 
         VRToPR[vrNum] = pr;
         PRToVR[pr] = vrNum;
-        VRToSpillLoc[vrNum] = -1; // has no spill location anymore
+        restoreCount++;
+        if (this.trace != null)
+            this.trace.record(current, AllocationTrace.RESTORE, vrNum, pr, PRStackSize);
 
         return pr;
     }
@@ -245,66 +404,92 @@ public class RAllocator {
      * @return the pr number
      */
     private int getPRFurthestUse() {
-        int max = -1;
-        int maxPR = -1;
-        for (int i = 0; i < numPhysRegs - 1; i++) {
-            if (PRNU[i] > max) {
-                max = PRNU[i];
-                maxPR = i;
-            }
-        }
-        return maxPR; // no free physical register
+        return PRNU.max(lockedPR); // -1 if no physical register can be spilled
+    }
+
+    /**
+     * @return the size in bytes of the spill area the allocated block uses, which is the most
+     * values it ever has spilled at once times 4
+     */
+    public int getPeakSpillBytes() {
+        return nextSpillLoc - SPILL_BASE;
+    }
+
+    /**
+     * @return the number of values stored to spill locations
+     */
+    public int getStoreCount() {
+        return storeCount;
+    }
+
+    /**
+     * @return the number of values loaded back from spill locations
+     */
+    public int getRestoreCount() {
+        return restoreCount;
+    }
+
+    /**
+     * @return the number of spilled constants loaded again with a loadI
+     */
+    public int getRematCount() {
+        return rematCount;
     }
 
     /**
      * Gets an integer array of -1s with the given size
      * @param size the size of the array
      */
-    private Integer[] getNegArray(int size) {
-        Integer[] toReturn = new Integer[size];
+    private int[] getNegArray(int size) {
+        int[] toReturn = new int[size];
         for (int i = 0; i < size; i++) {
             toReturn[i] = -1;
         }
         return toReturn;
     }
 
-    public void PrintRenamedBlock() {
-        IntRepList.OpNode current = this.iRepBetter.head;
-        while (null != current) {
-            this.PrintRenamedOperation(current.opArray);
-            current = current.next;
+    /**
+     * Builds the allocated block: the operations of iRep with the spill code merged in front of
+     * the operations it was inserted for
+     * @return the allocated block
+     */
+    public IntRepList getAllocatedBlock() {
+        IntRepList block = new IntRepList(this.iRep.size() + this.spillCode.size());
+        int spillOP = 0;
+        for (int op = 0; op < this.iRep.size(); op++) {
+            while (spillOP < this.spillCode.size() && this.spillAnchor[spillOP] == op)
+                block.append(this.spillCode, spillOP++);
+            block.append(this.iRep, op);
         }
+        return block;
     }
 
     /**
-     * Prints the operation after it has been renamed
-     * @param op the operation array
-     */
-    private void PrintRenamedOperation(Integer[] op) {
-        if (op[0] >= 3 && op[0] <= 7) // arithop
-            System.out.println("" + opCodeStrings[op[0]] + " r" + op[3] + "," + " r" + op[6] + " =>" + " r" + op[11]);
-        else if (op[0] == 2 || op[0] == 0) { // load or store
-            System.out.println(opCodeStrings[op[0]] + " r" + op[3] + " =>" + " r" + op[11]);
-        } else if (op[0] == 1) { // loadI -- prints a constant
-            System.out.println(opCodeStrings[op[0]] + " " + op[1] + " =>" + " r" + op[11]);
-        } else if (op[0] == 8) { // output
-            System.out.println(opCodeStrings[op[0]] + " " + op[1]);
-        } else if (op[0] == 9) { // nop
-            System.out.println(opCodeStrings[op[0]]);
+     * Writes the allocated ILOC block, with PRs in place of the VRs and the spill code merged in
+     * @param writer the writer to write to
+     * @throws IOException if the writer fails
+     */
+    public void PrintRenamedBlock(ILOCWriter writer) throws IOException {
+        int spillOP = 0;
+        for (int op = 0; op < this.iRep.size(); op++) {
+            while (spillOP < this.spillCode.size() && this.spillAnchor[spillOP] == op)
+                writer.writeOperation(this.spillCode, spillOP++, 3);
+            writer.writeOperation(this.iRep, op, 3);
         }
     }
 
     /**
      * Prints out the representation of an op line
-     * @param op the operation array
+     * @param ir the list holding the operation
+     * @param op the operation index
      */
-    private void ShowRep(Integer[] op) {
-        System.out.print(" " + this.opCodeStrings[op[0]]);
+    private void ShowRep(IntRepList ir, int op) {
+        System.out.print(" " + this.opCodeStrings[ir.getOpCode(op)]);
         for (int i = 1; i < 13; i++) {
             if ((i - 1) % 4 == 0)
                 System.out.print(" | ");
-            if (op[i] != null)
-                System.out.print(" " + op[i]);
+            if (ir.get(op, i) != IntRepList.ABSENT)
+                System.out.print(" " + ir.get(op, i));
             else
                 System.out.print(" - ");
         }
@@ -315,10 +500,9 @@ public class RAllocator {
      * Shows the entire representation of
      */
     public void ShowAllRep() {
-        IntRepList.OpNode current = this.iRepBetter.head;
-        while (null != current) {
-            this.ShowRep(current.opArray);
-            current = current.next;
+        IntRepList block = this.getAllocatedBlock();
+        for (int op = 0; op < block.size(); op++) {
+            this.ShowRep(block, op);
         }
     }
 
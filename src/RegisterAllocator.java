@@ -0,0 +1,47 @@
+import java.io.IOException;
+
+/**
+ * An allocation engine: assigns physical registers to the VRs of a renamed block (see IRRenamer),
+ * inserting spill code where there are not enough of them. Every engine keeps the PR reserved
+ * for spill addresses at numPhysRegs - 1 and puts its spill locations at RAllocator.SPILL_BASE
+ * and up.
+ */
+public interface RegisterAllocator {
+
+    /**
+     * Allocates the block
+     */
+    void Allocate();
+
+    /**
+     * @return the allocated block with the spill code merged in. The registers are in the PR fields.
+     */
+    IntRepList getAllocatedBlock();
+
+    /**
+     * Writes the allocated block
+     * @param writer the writer to write to
+     * @throws IOException if the writer fails
+     */
+    void PrintRenamedBlock(ILOCWriter writer) throws IOException;
+
+    /**
+     * @return the number of values stored to spill locations
+     */
+    int getStoreCount();
+
+    /**
+     * @return the number of values loaded back from spill locations
+     */
+    int getRestoreCount();
+
+    /**
+     * @return the number of constants loaded again with a loadI instead of kept in a register
+     */
+    int getRematCount();
+
+    /**
+     * @return the size in bytes of the spill area the allocated block uses
+     */
+    int getPeakSpillBytes();
+}
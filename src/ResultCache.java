@@ -0,0 +1,185 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An on disk cache of allocated blocks, so a block allocated before is not renamed and allocated
+ * again.
+ *
+ * The key is the SHA-256 of the parsed block (the opcode and the source fields of every operation,
+ * so whitespace and comments don't matter) and the settings the block is allocated with: the number
+ * of registers, the allocator and the passes run (see settings). Each entry is a file named after
+ * its key holding the allocated block as text. Entries are written to a temporary file and renamed
+ * into place, so a reader never sees half an entry, even when several processes share the
+ * directory. A hit touches the entry's modification time, and when the entries take more than the
+ * size limit the least recently used ones are deleted.
+ */
+public class ResultCache {
+
+    /**
+     * Part of every key. Change it whenever the allocators start writing different code for the
+     * same block, so entries written by an older version are never used.
+     */
+    private static final int FORMAT = 1;
+
+    private static final String SUFFIX = ".i";
+
+    private final File dir;
+    private final long maxBytes;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param dir the cache directory, created if it doesn't exist
+     * @param maxBytes the most the entries may take on disk
+     * @throws IOException if the directory can't be created
+     */
+    public ResultCache(File dir, long maxBytes) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("could not create the cache directory " + dir);
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Describes how a block is allocated, for key. Single files and batches both build their
+     * settings here, so the same allocation gets the same key either way.
+     * @param k the number of physical registers
+     * @param engine the allocator, a BatchAllocator constant
+     * @param numberValues whether ValueNumberer runs before renaming
+     * @param eliminateDeadCode whether DeadCodeEliminator runs after renaming
+     * @param schedule "before" or "after" to run ListScheduler before or after allocating, "none"
+     * @return the settings, as text
+     */
+    public static String settings(int k, int engine, boolean numberValues,
+                                  boolean eliminateDeadCode, String schedule) {
+        return "k=" + k + " engine=" + engine + (numberValues ? " -v" : "")
+                + (eliminateDeadCode ? " -e" : "") + " schedule=" + schedule;
+    }
+
+    /**
+     * Computes the key of a block. Only the opcodes and source fields are read, so it can be called
+     * before or after renaming.
+     * @param block the parsed block
+     * @param settings everything else that changes the allocated code, see settings
+     * @return the key, as hex digits
+     */
+    public String key(IntRepList block, String settings) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every Java platform has SHA-256
+        }
+        digest.update((FORMAT + " " + settings + "\n").getBytes(StandardCharsets.US_ASCII));
+        ByteBuffer bytes = ByteBuffer.allocate(1 << 14);
+        bytes.putInt(block.size());
+        for (int op = 0; op < block.size(); op++) {
+            if (bytes.remaining() < 16) {
+                digest.update(bytes.array(), 0, bytes.position());
+                bytes.clear();
+            }
+            bytes.putInt(block.getOpCode(op)).putInt(block.get(op, 1)).putInt(block.get(op, 5))
+                    .putInt(block.get(op, 9));
+        }
+        digest.update(bytes.array(), 0, bytes.position());
+
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest())
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+
+    /**
+     * Writes the cached block for a key, if there is one
+     * @param key the key of the block
+     * @param writer where to write the allocated block
+     * @return whether the block was in the cache
+     * @throws IOException if the entry can't be read or the writer fails
+     */
+    public boolean lookup(String key, ILOCWriter writer) throws IOException {
+        File entry = new File(this.dir, key + SUFFIX);
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(entry.toPath());
+        } catch (NoSuchFileException e) {
+            this.missCount.incrementAndGet();
+            return false;
+        }
+        entry.setLastModified(System.currentTimeMillis());
+        writer.write(bytes, 0, bytes.length);
+        this.hitCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Adds an allocated block, then evicts the least recently used entries if the cache is over
+     * its size limit
+     * @param key the key of the block
+     * @param allocated the allocated block, with the registers in the PR fields
+     * @throws IOException if the entry can't be written
+     */
+    public void store(String key, IntRepList allocated) throws IOException {
+        File temp = File.createTempFile("entry", ".tmp", this.dir);
+        try {
+            ILOCWriter writer = ILOCWriter.open(temp.getPath());
+            try {
+                for (int op = 0; op < allocated.size(); op++)
+                    writer.writeOperation(allocated, op, 3);
+            } finally {
+                writer.close();
+            }
+            Files.move(temp.toPath(), new File(this.dir, key + SUFFIX).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete(); // only still there if something failed
+        }
+        this.evict();
+    }
+
+    /**
+     * Deletes the least recently used entries until the rest fit in the size limit
+     */
+    private synchronized void evict() {
+        File[] entries = this.dir.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (entries == null)
+            return;
+        long total = 0;
+        long[] lastUsed = new long[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            total += entries[i].length();
+            lastUsed[i] = entries[i].lastModified();
+        }
+        if (total <= this.maxBytes)
+            return;
+
+        Integer[] order = new Integer[entries.length];
+        for (int i = 0; i < entries.length; i++)
+            order[i] = i;
+        Arrays.sort(order, Comparator.comparingLong(i -> lastUsed[i]));
+        for (int i = 0; i < order.length && total > this.maxBytes; i++) {
+            long length = entries[order[i]].length();
+            if (entries[order[i]].delete())
+                total -= length;
+        }
+    }
+
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+}
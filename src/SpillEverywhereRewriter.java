@@ -0,0 +1,242 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writes out a renamed block once every VR has either a PR or none at all, for the allocators
+ * that decide that up front for whole live ranges (ColoringAllocator, LinearScanAllocator).
+ *
+ * A VR without a PR is spilled everywhere: it is stored to its spill location right after its
+ * definition and loaded again in front of every use. Three PRs are kept out of the allocation for
+ * this: numPhysRegs - 1 holds the spill address, numPhysRegs - 3 and numPhysRegs - 2 hold the
+ * first and second used value of an operation, and numPhysRegs - 3 also takes a spilled result.
+ * A spilled constant is never stored, its loadI is dropped and each use gets its own loadI. A
+ * spill location is reused once the last use of its VR is past.
+ *
+ * Like RAllocator, the rewriter writes the PR fields of the block in place and keeps the spill
+ * code in a list of its own, merged in when the block is printed or built.
+ */
+public class SpillEverywhereRewriter {
+
+    /**
+     * The number of PRs the rewriter needs for itself
+     */
+    public static final int RESERVED = 3;
+
+    private final IntRepList iRep;
+    private final int numPhysRegs;
+
+    /**
+     * The PR of each VR, -1 for a spilled VR
+     */
+    private int[] VRToPR;
+
+    /**
+     * The spill operations, spillAnchor[i] is the index of the operation in iRep that spill
+     * operation i goes in front of
+     */
+    private final IntRepList spillCode = new IntRepList();
+    private int[] spillAnchor = new int[1024];
+
+    /**
+     * VRToSpillLoc[vr] is the spill location of a spilled vr while it is live, -1 otherwise
+     */
+    private final int[] VRToSpillLoc;
+
+    /**
+     * VRToConst[vr] is the constant vr is defined with by a loadI, ABSENT if it isn't
+     */
+    private final int[] VRToConst;
+
+    private int nextSpillLoc = RAllocator.SPILL_BASE;
+    private int[] freeSpillLocs = new int[16];
+    private int freeSpillLocCount;
+
+    private int storeCount;
+    private int restoreCount;
+    private int rematCount;
+
+    /**
+     * @param iRep the renamed block
+     * @param numPhysRegs the number of physical registers, at least RESERVED
+     * @param maxVRNum the number of VRs in the block
+     */
+    public SpillEverywhereRewriter(IntRepList iRep, int numPhysRegs, int maxVRNum) {
+        this.iRep = iRep;
+        this.numPhysRegs = numPhysRegs;
+        this.VRToSpillLoc = new int[maxVRNum];
+        Arrays.fill(this.VRToSpillLoc, -1);
+        this.VRToConst = new int[maxVRNum];
+        Arrays.fill(this.VRToConst, IntRepList.ABSENT);
+        for (int op = 0; op < iRep.size(); op++) {
+            if (iRep.getOpCode(op) == 1) // loadI
+                this.VRToConst[iRep.get(op, 10)] = iRep.get(op, 1);
+        }
+    }
+
+    /**
+     * Sets the PR fields of the block and makes the spill code
+     * @param VRToPR the PR of each VR, -1 for a spilled VR
+     */
+    public void rewrite(int[] VRToPR) {
+        /*
+         * Opcode Array representation:
+         *
+         * OPCODE       Argument 1          Argument 2          Argument 3
+         *             SR VR PR NU         SR VR PR NU         SR VR PR NU
+         *   0         1  2  3  4          5  6  7  8          9  10 11 12
+         *
+         */
+        IntRepList ir = this.iRep;
+        this.VRToPR = VRToPR;
+        int addressPR = this.numPhysRegs - 1;
+        for (int op = 0; op < ir.size(); op++) {
+            int opCode = ir.getOpCode(op);
+
+            if (opCode == 1 && VRToPR[ir.get(op, 10)] == -1)
+                continue; // a spilled constant is made again at each use instead
+
+            // load the spilled values the operation uses into the temporary PRs
+            int temp = this.numPhysRegs - RESERVED;
+            int lastOPUseInd = opCode == 2 ? 10 : 6; // the store also uses its third register
+            for (int opBaseInd = 1; opBaseInd < lastOPUseInd; opBaseInd += 4) {
+                if (ir.get(op, opBaseInd) == IntRepList.ABSENT || opCode == 1 || opCode >= 8)
+                    continue;
+                int VR = ir.get(op, opBaseInd + 1);
+                int PR = VRToPR[VR];
+                if (PR == -1) {
+                    PR = temp++;
+                    if (this.VRToConst[VR] != IntRepList.ABSENT) {
+                        this.emit(op, 1, this.VRToConst[VR], -1, PR);
+                        this.rematCount++;
+                    } else {
+                        this.emit(op, 1, this.spillLoc(VR), -1, addressPR);
+                        this.emit(op, 0, IntRepList.ABSENT, addressPR, PR);
+                        this.restoreCount++;
+                    }
+                }
+                ir.set(op, opBaseInd + 2, PR);
+            }
+
+            // a spilled value is not needed in memory after its last use
+            for (int opBaseInd = 1; opBaseInd < lastOPUseInd; opBaseInd += 4) {
+                if (ir.get(op, opBaseInd) == IntRepList.ABSENT || opCode == 1 || opCode >= 8)
+                    continue;
+                int VR = ir.get(op, opBaseInd + 1);
+                if (ir.get(op, opBaseInd + 3) == Integer.MAX_VALUE && this.VRToSpillLoc[VR] != -1)
+                    this.freeSpillLoc(VR);
+            }
+
+            if (opCode != 2 && opCode < 8) { // defines the register at index 9
+                int VR = ir.get(op, 10);
+                int PR = VRToPR[VR];
+                if (PR != -1) {
+                    ir.set(op, 11, PR);
+                } else {
+                    ir.set(op, 11, this.numPhysRegs - RESERVED);
+                    if (ir.get(op, 12) != Integer.MAX_VALUE) { // only store a value that is used later
+                        this.emit(op + 1, 1, this.spillLoc(VR), -1, addressPR);
+                        this.emit(op + 1, 2, IntRepList.ABSENT, this.numPhysRegs - RESERVED, addressPR);
+                        this.storeCount++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether the operation is left out of the allocated block (the loadI of a spilled constant)
+     */
+    private boolean dropped(int op) {
+        return this.iRep.getOpCode(op) == 1 && this.VRToPR[this.iRep.get(op, 10)] == -1;
+    }
+
+    /**
+     * Builds the allocated block: the operations of the block with the spill code merged in
+     * @return the allocated block
+     */
+    public IntRepList getAllocatedBlock() {
+        IntRepList block = new IntRepList(this.iRep.size() + this.spillCode.size());
+        int spillOP = 0;
+        for (int op = 0; op < this.iRep.size(); op++) {
+            while (spillOP < this.spillCode.size() && this.spillAnchor[spillOP] == op)
+                block.append(this.spillCode, spillOP++);
+            if (!this.dropped(op))
+                block.append(this.iRep, op);
+        }
+        return block;
+    }
+
+    /**
+     * Writes the allocated block
+     * @param writer the writer to write to
+     * @throws IOException if the writer fails
+     */
+    public void PrintRenamedBlock(ILOCWriter writer) throws IOException {
+        int spillOP = 0;
+        for (int op = 0; op < this.iRep.size(); op++) {
+            while (spillOP < this.spillCode.size() && this.spillAnchor[spillOP] == op)
+                writer.writeOperation(this.spillCode, spillOP++, 3);
+            if (!this.dropped(op))
+                writer.writeOperation(this.iRep, op, 3);
+        }
+    }
+
+    /**
+     * Adds a spill operation
+     * @param anchor the index of the operation in the block the spill operation goes in front of
+     * @param opCode load, loadI or store
+     * @param constant the constant of a loadI, ABSENT otherwise
+     * @param usePR the PR in the first argument, -1 if none
+     * @param resultPR the PR in the third argument
+     */
+    private void emit(int anchor, int opCode, int constant, int usePR, int resultPR) {
+        int op = this.spillCode.add(opCode);
+        if (op == this.spillAnchor.length)
+            this.spillAnchor = Arrays.copyOf(this.spillAnchor, op * 2);
+        this.spillAnchor[op] = anchor;
+        if (constant != IntRepList.ABSENT)
+            this.spillCode.set(op, 1, constant);
+        if (usePR != -1)
+            this.spillCode.set(op, 3, usePR);
+        this.spillCode.set(op, 11, resultPR);
+    }
+
+    /**
+     * @return the spill location of vr, giving it one first if it has none (a VR used without
+     * being defined in the block gets one at its first use)
+     */
+    private int spillLoc(int vr) {
+        if (this.VRToSpillLoc[vr] == -1) {
+            if (this.freeSpillLocCount > 0) {
+                this.VRToSpillLoc[vr] = this.freeSpillLocs[--this.freeSpillLocCount];
+            } else {
+                this.VRToSpillLoc[vr] = this.nextSpillLoc;
+                this.nextSpillLoc += 4;
+            }
+        }
+        return this.VRToSpillLoc[vr];
+    }
+
+    private void freeSpillLoc(int vr) {
+        if (this.freeSpillLocCount == this.freeSpillLocs.length)
+            this.freeSpillLocs = Arrays.copyOf(this.freeSpillLocs, this.freeSpillLocCount * 2);
+        this.freeSpillLocs[this.freeSpillLocCount++] = this.VRToSpillLoc[vr];
+        this.VRToSpillLoc[vr] = -1;
+    }
+
+    public int getStoreCount() {
+        return this.storeCount;
+    }
+
+    public int getRestoreCount() {
+        return this.restoreCount;
+    }
+
+    public int getRematCount() {
+        return this.rematCount;
+    }
+
+    public int getPeakSpillBytes() {
+        return this.nextSpillLoc - RAllocator.SPILL_BASE;
+    }
+}
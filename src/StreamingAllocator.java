@@ -0,0 +1,130 @@
+import java.io.IOException;
+
+/**
+ * Allocates a block a window at a time so the heap needed does not grow with the block.
+ *
+ * The file is read twice. The first pass parses one operation at a time into WindowSplitter to
+ * find the boundaries no value is live across. The second pass parses the operations up to the
+ * next boundary, renames and allocates them as a block of their own and prints them before
+ * reading on. Since nothing is live across a boundary, every window starts with all PRs free,
+ * just as the whole block's allocation would at that point. A window is only longer than the
+ * window size when the block has no boundary to cut at nearby.
+ */
+public class StreamingAllocator {
+
+    private final String filePath;
+    private final int numPhysRegs;
+    private final int windowSize;
+    private final boolean memoryMapped;
+
+    /**
+     * Where allocation decisions are recorded, null when tracing is off
+     */
+    private AllocationTrace trace;
+
+    /**
+     * The spill statistics of all windows: counts are added up, the spill area is the largest
+     */
+    private int storeCount;
+    private int restoreCount;
+    private int rematCount;
+    private int peakSpillBytes;
+    private long allocateNanos;
+
+    /**
+     * @param filePath the file holding the block
+     * @param numPhysRegs the number of physical registers available
+     * @param windowSize the smallest number of operations in a window
+     * @param memoryMapped whether the scanner should memory map the file
+     */
+    public StreamingAllocator(String filePath, int numPhysRegs, int windowSize, boolean memoryMapped) {
+        this.filePath = filePath;
+        this.numPhysRegs = numPhysRegs;
+        this.windowSize = windowSize;
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * @param trace where to record allocation decisions, null to turn tracing off
+     */
+    public void setTrace(AllocationTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Allocates the block and writes it out, flushing the writer after every window
+     * @param writer where to write the allocated block
+     * @throws IOException if reading the file or the writer fails, or the file changed between
+     * the passes
+     */
+    public void Allocate(ILOCWriter writer) throws IOException {
+        // first pass: find where the block can be cut
+        WindowSplitter splitter = new WindowSplitter(this.windowSize);
+        ILOCParser parser = new ILOCParser(this.filePath, false, false, this.memoryMapped);
+        IntRepList op = new IntRepList(16);
+        while (parser.ParseNext(op)) {
+            splitter.add(op, 0);
+            op.clear();
+        }
+        int[] cuts = splitter.getCuts();
+        int maxSRNum = parser.getMaxSRNum();
+
+        // second pass: rename, allocate and print each window
+        parser = new ILOCParser(this.filePath, false, false, this.memoryMapped);
+        parser.setReportErrors(false); // the first pass already reported them
+        IntRepList window = new IntRepList(this.windowSize + 16);
+        int end = 0;
+        for (int cut = 0; cut <= cuts.length; cut++) {
+            int start = end;
+            end = cut < cuts.length ? cuts[cut] : splitter.size();
+            window.clear();
+            for (int i = start; i < end; i++) {
+                if (!parser.ParseNext(window))
+                    throw new IOException(this.filePath + " ended early on the second pass, it changed while being read");
+            }
+
+            IRRenamer renamer = new IRRenamer(window, maxSRNum);
+            renamer.Rename();
+            RAllocator allocator = new RAllocator(window, this.numPhysRegs, renamer.getMaxVRegNum());
+            allocator.setTrace(this.trace);
+            if (this.trace != null)
+                this.trace.setOperationBase(start);
+            long allocateStart = System.nanoTime();
+            allocator.Allocate();
+            this.allocateNanos += System.nanoTime() - allocateStart;
+            this.storeCount += allocator.getStoreCount();
+            this.restoreCount += allocator.getRestoreCount();
+            this.rematCount += allocator.getRematCount();
+            this.peakSpillBytes = Math.max(this.peakSpillBytes, allocator.getPeakSpillBytes());
+            allocator.PrintRenamedBlock(writer);
+            writer.flush();
+        }
+    }
+
+    public int getStoreCount() {
+        return this.storeCount;
+    }
+
+    public int getRestoreCount() {
+        return this.restoreCount;
+    }
+
+    public int getRematCount() {
+        return this.rematCount;
+    }
+
+    /**
+     * @return the time spent in RAllocator.Allocate over all windows
+     */
+    public long getAllocateNanos() {
+        return this.allocateNanos;
+    }
+
+    /**
+     * @return the largest spill area of any window in bytes. Every window starts its spill area
+     * at the same address.
+     */
+    public int getPeakSpillBytes() {
+        return this.peakSpillBytes;
+    }
+}
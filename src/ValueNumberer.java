@@ -0,0 +1,319 @@
+import java.util.Arrays;
+
+/**
+ * Local value numbering over a parsed block, before it is renamed.
+ *
+ * Every value the block computes gets a number: a loadI the number of its constant, an add, sub,
+ * mult, lshift or rshift the number of its opcode and operand numbers (add and mult with their
+ * operands in order, since they commute), and a load or a register read before any definition a
+ * number of its own, since memory can change under it. An arithop or load whose value some
+ * register still holds is redundant: the uses after it read that register instead, and the
+ * operation is removed if no use of its own register is left. When both operands of an arithop are
+ * constants the operation is folded into a loadI of the result, and adding or subtracting 0,
+ * multiplying by 1 and shifting by 0 give the number of the other operand. A loadI constant
+ * can't be negative, so results below 0 are left as they are.
+ *
+ * Nothing is added to the block and only registers already in it are used, so maxSRNum stays
+ * the same.
+ */
+public class ValueNumberer {
+
+    private static final int LOADI = 1;
+    private static final int ADD = 3;
+    private static final int SUB = 4;
+    private static final int MULT = 5;
+    private static final int LSHIFT = 6;
+    private static final int RSHIFT = 7;
+
+    /**
+     * The holder of a constant. Registers holding the same constant are not merged: the allocator
+     * rematerializes constants instead of spilling them, so a loadI costs less than the longer
+     * live range of reading one register for them all.
+     */
+    private static final int CONSTANT = -2;
+
+    /**
+     * The number of bits a value number takes in a key
+     */
+    private static final int VN_BITS = 29;
+
+    private final IntRepList iRep;
+    private final int maxSRNum;
+
+    private int removedCount;
+    private int foldedCount;
+
+    /**
+     * @param iRep the block, as ILOCParser.ParseGetIRep gives it
+     * @param maxSRNum ILOCParser.getMaxSRNum
+     */
+    public ValueNumberer(IntRepList iRep, int maxSRNum) {
+        this.iRep = iRep;
+        this.maxSRNum = maxSRNum;
+    }
+
+    /**
+     * Numbers the values of the block, rewrites the uses of redundant registers, folds constants
+     * and removes the operations that are no longer needed
+     * @return the number of operations removed
+     */
+    public int NumberValues() {
+        IntRepList ir = this.iRep;
+        int numSRs = this.maxSRNum + 1;
+        int maxVNs = ir.size() + numSRs;
+        if (maxVNs >= 1 << VN_BITS)
+            throw new IllegalArgumentException("the block is too large to number its values");
+
+        int[] SRToVN = new int[numSRs]; // the value each register holds, -1 if never defined
+        Arrays.fill(SRToVN, -1);
+        int[] VNToSR = new int[maxVNs]; // the register reads of a value go to, -1 if none holds it
+        Arrays.fill(VNToSR, -1);
+        long[] VNToConst = new long[maxVNs]; // the constant a value is, NOT_CONST if it isn't one
+        Arrays.fill(VNToConst, LongIntMap.NOT_CONST);
+        // redundantDef[sr] is the redundant operation that defined sr, -1 once a use reads sr itself
+        int[] redundantDef = new int[numSRs];
+        Arrays.fill(redundantDef, -1);
+        boolean[] remove = new boolean[ir.size()];
+        LongIntMap table = new LongIntMap(ir.size());
+        int VNCount = 0;
+        this.foldedCount = 0;
+
+        for (int op = 0; op < ir.size(); op++) {
+            int opCode = ir.getOpCode(op);
+            if (opCode == 0 || opCode == 2 || (opCode >= ADD && opCode <= RSHIFT)) {
+                int lastOPUseInd = opCode == 2 ? 10 : opCode == 0 ? 2 : 6;
+                for (int opBaseInd = 1; opBaseInd < lastOPUseInd; opBaseInd += 4) {
+                    int SR = ir.get(op, opBaseInd);
+                    if (SR != IntRepList.ABSENT && SRToVN[SR] == -1) { // read before any definition
+                        SRToVN[SR] = VNCount++;
+                        VNToSR[SRToVN[SR]] = SR;
+                    }
+                }
+            }
+
+            // the value the operation computes, -1 if it is new
+            int VN;
+            if (opCode >= ADD && opCode <= RSHIFT) {
+                int VN1 = SRToVN[ir.get(op, 1)];
+                int VN2 = SRToVN[ir.get(op, 5)];
+                long const1 = VNToConst[VN1];
+                long const2 = VNToConst[VN2];
+                if (const1 != LongIntMap.NOT_CONST && const2 != LongIntMap.NOT_CONST
+                        && fold(opCode, (int) const1, (int) const2) >= 0) {
+                    ir.set(op, 0, LOADI); // the operands are no longer read
+                    ir.set(op, 1, fold(opCode, (int) const1, (int) const2));
+                    ir.set(op, 5, IntRepList.ABSENT);
+                    opCode = LOADI;
+                    this.foldedCount++;
+                }
+                else {
+                    this.readOperand(op, 1, SRToVN, VNToSR, redundantDef);
+                    this.readOperand(op, 5, SRToVN, VNToSR, redundantDef);
+                    if ((opCode == ADD || opCode == SUB || opCode == LSHIFT || opCode == RSHIFT) && const2 == 0)
+                        VN = VN1;
+                    else if (opCode == ADD && const1 == 0)
+                        VN = VN2;
+                    else if (opCode == MULT && const2 == 1)
+                        VN = VN1;
+                    else if (opCode == MULT && const1 == 1)
+                        VN = VN2;
+                    else {
+                        if ((opCode == ADD || opCode == MULT) && VN1 > VN2) {
+                            int swap = VN1;
+                            VN1 = VN2;
+                            VN2 = swap;
+                        }
+                        long key = (long) opCode << (2 * VN_BITS) | (long) VN1 << VN_BITS | VN2;
+                        VN = table.get(key);
+                        if (VN == -1) {
+                            VN = VNCount++;
+                            table.put(key, VN);
+                        }
+                    }
+                    VNCount = this.define(op, VN, VNCount, SRToVN, VNToSR, redundantDef, remove);
+                    continue;
+                }
+            }
+
+            if (opCode == LOADI) {
+                int constant = ir.get(op, 1);
+                long key = constant; // opcode 0 in the key, no arithop has it
+                VN = table.get(key);
+                if (VN == -1) {
+                    VN = VNCount++;
+                    table.put(key, VN);
+                    VNToConst[VN] = constant;
+                    VNToSR[VN] = CONSTANT;
+                }
+                VNCount = this.define(op, VN, VNCount, SRToVN, VNToSR, redundantDef, remove);
+            }
+            else if (opCode == 0) { // load, a new value every time
+                this.readOperand(op, 1, SRToVN, VNToSR, redundantDef);
+                VNCount = this.define(op, -1, VNCount, SRToVN, VNToSR, redundantDef, remove);
+            }
+            else if (opCode == 2) { // store
+                this.readOperand(op, 1, SRToVN, VNToSR, redundantDef);
+                this.readOperand(op, 9, SRToVN, VNToSR, redundantDef);
+            }
+        }
+        for (int SR = 0; SR < numSRs; SR++) { // never read again
+            if (redundantDef[SR] != -1)
+                remove[redundantDef[SR]] = true;
+        }
+
+        int to = 0;
+        for (int op = 0; op < ir.size(); op++) {
+            if (!remove[op])
+                ir.move(op, to++);
+        }
+        this.removedCount = ir.size() - to;
+        ir.truncate(to);
+        return this.removedCount;
+    }
+
+    /**
+     * Points an operand at the register that holds its value, or keeps the register it names if
+     * that one is as good
+     */
+    private void readOperand(int op, int opBaseInd, int[] SRToVN, int[] VNToSR, int[] redundantDef) {
+        int SR = this.iRep.get(op, opBaseInd);
+        int VN = SRToVN[SR];
+        if (VNToSR[VN] == CONSTANT) { // loadIs are never redundant, see define
+            redundantDef[SR] = -1;
+            return;
+        }
+        if (VNToSR[VN] == -1) // the register that held it was defined again, SR takes over
+            VNToSR[VN] = SR;
+        int holder = VNToSR[VN];
+        if (holder != SR)
+            this.iRep.set(op, opBaseInd, holder);
+        else
+            redundantDef[SR] = -1; // its definition is needed after all
+    }
+
+    /**
+     * Records the value the register an operation defines now holds
+     * @param VN the value, -1 for a new one
+     * @return the new number of values
+     */
+    private int define(int op, int VN, int VNCount, int[] SRToVN, int[] VNToSR, int[] redundantDef,
+                       boolean[] remove) {
+        int SR = this.iRep.get(op, 9);
+        if (VN != -1 && SRToVN[SR] == VN) { // the register already holds it
+            remove[op] = true;
+            return VNCount;
+        }
+        if (redundantDef[SR] != -1) { // nothing read the old definition
+            remove[redundantDef[SR]] = true;
+            redundantDef[SR] = -1;
+        }
+        if (SRToVN[SR] != -1 && VNToSR[SRToVN[SR]] == SR)
+            VNToSR[SRToVN[SR]] = -1; // the old value is no longer in SR
+
+        if (VN == -1)
+            VN = VNCount++;
+        SRToVN[SR] = VN;
+        if (VNToSR[VN] == CONSTANT)
+            return VNCount; // every register holding the constant is read as it is
+        if (VNToSR[VN] == -1)
+            VNToSR[VN] = SR;
+        else
+            redundantDef[SR] = op; // another register holds the value, reads go there
+        return VNCount;
+    }
+
+    /**
+     * @return the result of an arithop on two constants, with the wraparound and shift masking
+     * of 32 bit registers
+     */
+    private static int fold(int opCode, int a, int b) {
+        switch (opCode) {
+            case ADD: return a + b;
+            case SUB: return a - b;
+            case MULT: return a * b;
+            case LSHIFT: return a << b;
+            default: return a >> b;
+        }
+    }
+
+    /**
+     * @return the number of operations the last NumberValues removed
+     */
+    public int getRemovedCount() {
+        return this.removedCount;
+    }
+
+    /**
+     * @return the number of arithops the last NumberValues turned into a loadI
+     */
+    public int getFoldedCount() {
+        return this.foldedCount;
+    }
+
+    /**
+     * An open addressing hash table from long keys to non negative ints, so looking up a value
+     * doesn't box its key
+     */
+    private static class LongIntMap {
+
+        /**
+         * Marks a value that is not a constant. No key or constant can be this.
+         */
+        static final long NOT_CONST = Long.MIN_VALUE;
+
+        private long[] keys;
+        private int[] values;
+        private int count;
+
+        LongIntMap(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(16, expected) * 2 - 1) * 2;
+            this.keys = new long[capacity];
+            this.values = new int[capacity];
+            Arrays.fill(this.keys, NOT_CONST);
+        }
+
+        /**
+         * @return the value of the key, -1 if it has none
+         */
+        int get(long key) {
+            int mask = this.keys.length - 1;
+            for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+                if (this.keys[slot] == key)
+                    return this.values[slot];
+                if (this.keys[slot] == NOT_CONST)
+                    return -1;
+            }
+        }
+
+        void put(long key, int value) {
+            if (2 * (this.count + 1) > this.keys.length)
+                this.grow();
+            int mask = this.keys.length - 1;
+            int slot = hash(key) & mask;
+            while (this.keys[slot] != NOT_CONST && this.keys[slot] != key)
+                slot = (slot + 1) & mask;
+            if (this.keys[slot] == NOT_CONST)
+                this.count++;
+            this.keys[slot] = key;
+            this.values[slot] = value;
+        }
+
+        private void grow() {
+            long[] oldKeys = this.keys;
+            int[] oldValues = this.values;
+            this.keys = new long[oldKeys.length * 2];
+            this.values = new int[oldValues.length * 2];
+            Arrays.fill(this.keys, NOT_CONST);
+            this.count = 0;
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldKeys[slot] != NOT_CONST)
+                    this.put(oldKeys[slot], oldValues[slot]);
+            }
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
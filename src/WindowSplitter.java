@@ -0,0 +1,97 @@
+import java.util.Arrays;
+
+/**
+ * Finds the points where a block can be cut into windows that are renamed and allocated on their
+ * own: the boundaries no value is live across. A value defined before a boundary and used after
+ * it forbids every boundary in between, and a register used before any definition is live from
+ * the start of the block, so it forbids every boundary before its use.
+ *
+ * Operations are fed in order one at a time and only the definition point of each source register
+ * and the candidate boundaries are kept. Candidates closer than the window size to the previous
+ * one are not kept, so memory stays proportional to the number of windows.
+ */
+public class WindowSplitter {
+
+    /**
+     * The smallest number of operations between two cuts
+     */
+    private final int windowSize;
+
+    /**
+     * lastDef[sr] is the index of the operation that last defined sr, -1 if none has
+     */
+    private int[] lastDef;
+
+    /**
+     * The boundaries that are still possible cuts, in increasing order. Boundary b is the one in
+     * front of operation b.
+     */
+    private int[] cuts;
+    private int cutCount;
+
+    /**
+     * The index of the next operation
+     */
+    private int index;
+
+    /**
+     * @param windowSize the smallest number of operations in a window
+     */
+    public WindowSplitter(int windowSize) {
+        this.windowSize = Math.max(windowSize, 1);
+        this.lastDef = new int[64];
+        Arrays.fill(this.lastDef, -1);
+        this.cuts = new int[64];
+    }
+
+    /**
+     * Adds the next operation of the block
+     * @param ir the list holding the operation
+     * @param op the index of the operation in ir
+     */
+    public void add(IntRepList ir, int op) {
+        int i = this.index++;
+        int last = this.cutCount == 0 ? 0 : this.cuts[this.cutCount - 1];
+        if (i - last >= this.windowSize) {
+            if (this.cutCount == this.cuts.length)
+                this.cuts = Arrays.copyOf(this.cuts, this.cutCount * 2);
+            this.cuts[this.cutCount++] = i;
+        }
+
+        int opCode = ir.getOpCode(op);
+        if (opCode != 1 && opCode < 8) { // only these use registers
+            int lastOPUseInd = opCode == 2 ? 10 : 6; // the store also uses its third register
+            for (int opBaseInd = 1; opBaseInd < lastOPUseInd; opBaseInd += 4) {
+                int SR = ir.get(op, opBaseInd);
+                if (SR == IntRepList.ABSENT)
+                    continue;
+                int def = SR < this.lastDef.length ? this.lastDef[SR] : -1;
+                while (this.cutCount > 0 && this.cuts[this.cutCount - 1] > def)
+                    this.cutCount--; // the value is live across these boundaries
+            }
+        }
+        if (opCode != 2 && opCode < 8) { // defines the register at index 9
+            int SR = ir.get(op, 9);
+            if (SR >= this.lastDef.length) {
+                int oldLength = this.lastDef.length;
+                this.lastDef = Arrays.copyOf(this.lastDef, Math.max(SR + 1, oldLength * 2));
+                Arrays.fill(this.lastDef, oldLength, this.lastDef.length, -1);
+            }
+            this.lastDef[SR] = i;
+        }
+    }
+
+    /**
+     * @return the boundaries to cut the block at, in increasing order
+     */
+    public int[] getCuts() {
+        return Arrays.copyOf(this.cuts, this.cutCount);
+    }
+
+    /**
+     * @return the number of operations added
+     */
+    public int size() {
+        return this.index;
+    }
+}